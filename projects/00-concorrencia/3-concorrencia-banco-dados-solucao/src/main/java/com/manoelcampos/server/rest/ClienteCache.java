@@ -0,0 +1,160 @@
+package com.manoelcampos.server.rest;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.manoelcampos.server.model.Cliente;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache em memória dos cadastros de clientes, evitando acessar o banco de dados
+ * a cada vez que um cliente é buscado pelo id, já que tais leituras são muito mais frequentes que as alterações.
+ *
+ * <p>O cache é limitado a {@link #maximumSize} clientes, sendo usada a biblioteca
+ * <a href="https://github.com/ben-manes/caffeine">Caffeine</a>, que remove os clientes menos
+ * usados por meio do algoritmo W-TinyLFU quando tal limite é atingido.
+ * São armazenadas cópias dos clientes desvinculadas do banco de dados,
+ * que podem ser compartilhadas entre as requisições e nunca são alteradas.</p>
+ *
+ * <p>O campo {@link Cliente#versao} é usado para garantir que o cache nunca volte para
+ * uma versão mais antiga de um cliente: ao incluir um cliente, é mantida a cópia com a maior versão.
+ * Assim, uma busca lenta que leu o cadastro antes de uma alteração não sobrescreve a cópia
+ * mais nova incluída após tal alteração. Os clientes incluídos e alterados são atualizados no cache,
+ * e os excluídos removidos, somente depois que a transação é confirmada no banco.</p>
+ *
+ * <p>As alterações feitas diretamente no banco de dados (por outra aplicação, por exemplo)
+ * não são percebidas pelo cache, mas um cliente que informa a última versão que
+ * recebeu (veja {@link #find(long, long)}) nunca recebe uma versão anterior.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+@ApplicationScoped
+public class ClienteCache {
+    /**
+     * Quantidade máxima de clientes mantidos no cache.
+     */
+    @ConfigProperty(name = "cliente.cache.maximumSize", defaultValue = "10000")
+    long maximumSize;
+
+    @Inject
+    TransactionSynchronizationRegistry transactionRegistry;
+
+    private Cache<Long, Cliente> cache;
+
+    @PostConstruct
+    void init() {
+        cache = Caffeine.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    /**
+     * Busca um cliente pelo id, primeiro no cache e, se não estiver lá, no banco de dados.
+     * @param id id do cliente
+     * @return o cliente ou null se ele não existir
+     */
+    public Cliente find(final long id) {
+        return find(id, 0);
+    }
+
+    /**
+     * Busca um cliente pelo id, primeiro no cache e, se não estiver lá ou a versão
+     * armazenada for anterior à indicada, no banco de dados.
+     * @param id id do cliente
+     * @param minVersao menor versão que pode ser retornada (normalmente a última recebida pelo usuário)
+     * @return o cliente ou null se ele não existir
+     */
+    public Cliente find(final long id, final long minVersao) {
+        final Cliente cliente = cache.get(id, this::load);
+        if(cliente == null || cliente.versao >= minVersao) {
+            return cliente;
+        }
+
+        final Cliente atual = load(id);
+        return atual == null ? null : put(atual);
+    }
+
+    /**
+     * Inclui ou atualiza um cliente no cache após a transação atual ser confirmada.
+     * Deve ser chamado após o cliente ser persistido e a versão ter sido atualizada no banco (com flush).
+     * @param cliente cliente incluído ou alterado
+     */
+    public void putAfterCommit(final Cliente cliente) {
+        final Cliente snapshot = snapshot(cliente);
+        afterCommit(() -> put(snapshot));
+    }
+
+    /**
+     * Remove um cliente do cache após a transação atual ser confirmada.
+     * @param id id do cliente excluído
+     */
+    public void invalidateAfterCommit(final long id) {
+        afterCommit(() -> cache.invalidate(id));
+    }
+
+    /**
+     * Obtém as estatísticas de uso do cache.
+     * @return um mapa com a quantidade de acertos (hits), falhas (misses), remoções (evictions),
+     *         a taxa de acertos e a quantidade atual de clientes no cache
+     */
+    public Map<String, Object> getStats() {
+        final CacheStats stats = cache.stats();
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("hits", stats.hitCount());
+        map.put("misses", stats.missCount());
+        map.put("evictions", stats.evictionCount());
+        map.put("hitRate", stats.hitRate());
+        map.put("size", cache.estimatedSize());
+        map.put("maximumSize", maximumSize);
+        return map;
+    }
+
+    /**
+     * Inclui uma cópia de um cliente no cache, a menos que já exista uma versão mais nova dele.
+     * @return a cópia mantida no cache
+     */
+    private Cliente put(final Cliente snapshot) {
+        return cache.asMap().merge(snapshot.id, snapshot, (atual, novo) -> novo.versao >= atual.versao ? novo : atual);
+    }
+
+    private Cliente load(final long id) {
+        final Cliente cliente = Cliente.findById(id);
+        return cliente == null ? null : snapshot(cliente);
+    }
+
+    private void afterCommit(final Runnable action) {
+        transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {}
+
+            @Override
+            public void afterCompletion(final int status) {
+                if(status == Status.STATUS_COMMITTED) {
+                    action.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Cria uma cópia de um cliente, desvinculada do contexto de persistência da requisição atual.
+     */
+    private static Cliente snapshot(final Cliente cliente) {
+        final Cliente copia = new Cliente();
+        copia.id = cliente.id;
+        copia.nome = cliente.nome;
+        copia.cpf = cliente.cpf;
+        copia.sexo = cliente.sexo;
+        copia.endereco = cliente.endereco;
+        copia.telefone = cliente.telefone;
+        copia.versao = cliente.versao;
+        return copia;
+    }
+}
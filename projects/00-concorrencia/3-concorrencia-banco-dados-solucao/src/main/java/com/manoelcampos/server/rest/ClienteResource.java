@@ -1,13 +1,37 @@
 package com.manoelcampos.server.rest;
 
 import com.manoelcampos.server.model.Cliente;
+import io.quarkus.hibernate.orm.panache.runtime.JpaOperations;
+import io.quarkus.panache.common.Sort;
+import org.hibernate.jpa.QueryHints;
 
+import javax.inject.Inject;
+import javax.json.bind.Jsonb;
+import javax.persistence.EntityManager;
 import javax.persistence.OptimisticLockException;
+import javax.transaction.NotSupportedException;
+import javax.transaction.SystemException;
 import javax.transaction.Transactional;
+import javax.transaction.UserTransaction;
 import javax.ws.rs.*;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 import static javax.ws.rs.core.Response.Status;
 
@@ -15,30 +39,207 @@ import static javax.ws.rs.core.Response.Status;
 @Produces(MediaType.APPLICATION_JSON)
 @Consumes(MediaType.APPLICATION_JSON)
 public class ClienteResource {
+    /**
+     * Quantidade máxima de clientes retornados em uma página por {@link #all(long, int)}.
+     */
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    /**
+     * Quantidade de linhas que o driver JDBC busca do banco de dados de cada vez em {@link #stream(long)}.
+     */
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    @Inject
+    UserTransaction transaction;
+
+    @Inject
+    Jsonb jsonb;
+
+    @Inject
+    ClienteCache cache;
+
+    /**
+     * Obtém uma página de clientes usando paginação por chave (keyset pagination):
+     * em vez de pular as linhas das páginas anteriores (como em "offset"),
+     * são buscados apenas os clientes com id maior que o último id da página anterior,
+     * o que usa o índice da chave primária e tem o mesmo custo para qualquer página.
+     *
+     * @param afterId id do último cliente da página anterior (0 para obter a primeira página)
+     * @param limit quantidade máxima de clientes a retornar (até {@link #MAX_PAGE_SIZE})
+     * @return os clientes da página, ordenados por id
+     */
     @GET
-    public List<Cliente> all() {
-        return Cliente.listAll();
+    public List<Cliente> all(@QueryParam("afterId") @DefaultValue("0") long afterId,
+                             @QueryParam("limit") @DefaultValue("100") int limit)
+    {
+        if(limit <= 0){
+            Response response = Response.status(Status.BAD_REQUEST)
+                                        .entity("O parâmetro limit deve ser maior que zero.")
+                                        .type(MediaType.TEXT_PLAIN)
+                                        .build();
+            throw new WebApplicationException(response);
+        }
+
+        return Cliente.find("id > ?1", Sort.by("id"), afterId)
+                      .page(0, Math.min(limit, MAX_PAGE_SIZE))
+                      .list();
     }
 
+    /**
+     * Obtém todos os clientes (com id maior que afterId), escrevendo o JSON
+     * à medida que as linhas são lidas do banco de dados.
+     * O resultado é percorrido por um cursor (que busca {@link #STREAM_FETCH_SIZE} linhas de cada vez)
+     * e cada cliente é removido do contexto de persistência após ser escrito,
+     * assim o uso de memória não depende da quantidade de clientes cadastrados.
+     *
+     * <p>Como o JSON só é escrito depois que o método retorna,
+     * a transação (necessária para percorrer o resultado) é aberta durante a escrita,
+     * e não por meio da anotação @{@link Transactional}.</p>
+     *
+     * @param afterId id a partir do qual os clientes serão retornados (0 para obter todos)
+     * @return um objeto que escreve o array JSON com os clientes, ordenados por id
+     */
+    @GET
+    @Path("stream")
+    public StreamingOutput stream(@QueryParam("afterId") @DefaultValue("0") long afterId) {
+        return output -> {
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            try {
+                transaction.begin();
+                try {
+                    writeJsonArray(writer, afterId);
+                } finally {
+                    //A transação é apenas de leitura, assim não há nada a confirmar.
+                    transaction.rollback();
+                }
+            } catch (NotSupportedException | SystemException e) {
+                throw new IOException(e);
+            }
+
+            writer.flush();
+        };
+    }
+
+    private void writeJsonArray(final Writer writer, final long afterId) throws IOException {
+        final EntityManager em = JpaOperations.getEntityManager();
+        try(Stream<Cliente> clientes = Cliente.find("id > ?1", Sort.by("id"), afterId)
+                                              .withHint(QueryHints.HINT_FETCH_SIZE, STREAM_FETCH_SIZE)
+                                              .withHint(QueryHints.HINT_READONLY, true)
+                                              .stream())
+        {
+            writer.write('[');
+            final Iterator<Cliente> iterator = clientes.iterator();
+            while (iterator.hasNext()) {
+                final Cliente cliente = iterator.next();
+                writer.write(jsonb.toJson(cliente));
+                em.detach(cliente);
+                if(iterator.hasNext()) {
+                    writer.write(',');
+                }
+            }
+            writer.write(']');
+        }
+    }
+
+    /**
+     * Obtém um cliente pelo id, incluindo na resposta uma ETag formada pelo id e versão do cliente
+     * (veja {@link #entityTag(Cliente)}).
+     * Se o cabeçalho If-None-Match contiver tal ETag, o cliente não foi alterado desde a última vez
+     * que foi obtido pelo usuário, assim é retornado apenas o código HTTP 304 (Not Modified),
+     * sem o cadastro no corpo da resposta.
+     *
+     * @param id id do cliente
+     * @param ifNoneMatch valor do cabeçalho If-None-Match, contendo as ETags que o usuário já possui
+     * @param request requisição atual, usada para comparar as ETags
+     * @return a resposta contendo o cliente, ou o código 304 se ele não foi alterado
+     *         (ou 204 se o cliente não existir)
+     */
     @GET
     @Path("{id}")
-    public Cliente findById(@PathParam("id") long id) {
-        return Cliente.findById(id);
+    public Response findById(@PathParam("id") long id,
+                             @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+                             @Context Request request)
+    {
+        //Nunca retorna uma versão anterior à que o usuário já possui
+        final Cliente cliente = cache.find(id, versao(id, ifNoneMatch));
+        if(cliente == null){
+            return Response.noContent().build();
+        }
+
+        final EntityTag tag = entityTag(cliente);
+        final ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        final ResponseBuilder builder = notModified == null ? Response.ok(cliente).tag(tag) : notModified;
+
+        //Indica que o navegador pode guardar o cliente, mas deve sempre verificar se ele foi alterado.
+        final CacheControl cacheControl = new CacheControl();
+        cacheControl.setNoCache(true);
+        return builder.cacheControl(cacheControl).build();
+    }
+
+    /**
+     * Obtém as estatísticas de uso do cache de clientes.
+     * @return um objeto JSON com os acertos, falhas e demais dados do cache
+     * @see ClienteCache#getStats()
+     */
+    @GET
+    @Path("cache")
+    public Map<String, Object> cacheStats() {
+        return cache.getStats();
     }
 
     @POST
     @Transactional
     public long insert(Cliente cliente) {
         Cliente.persist(cliente);
+        cache.putAfterCommit(cliente);
         return cliente.id;
     }
 
+    /**
+     * Altera um cliente.
+     * Se for informado o cabeçalho If-Match com a ETag obtida em {@link #findById(long, String, Request)},
+     * ela é comparada com a versão atual do cliente (obtida do cache) antes de abrir a transação.
+     * Se o cliente foi alterado por outro usuário, é retornado o código HTTP 412 (Precondition Failed)
+     * sem acessar o banco de dados.
+     * Sem tal cabeçalho, as alterações concorrentes são detectadas pelo lock otimista
+     * ao gravar o cliente (retornando o código 409).
+     *
+     * @param ifMatch valor do cabeçalho If-Match, contendo a ETag do cliente que o usuário alterou
+     * @param request requisição atual, usada para comparar as ETags
+     * @param cliente cliente a ser alterado
+     */
     @PUT
+    public void update(@HeaderParam(HttpHeaders.IF_MATCH) String ifMatch, @Context Request request, Cliente cliente) {
+        if(ifMatch != null){
+            checkIfMatch(ifMatch, request, cliente);
+        }
+
+        //A chamada passa pelo interceptor de @Transactional, pois o Quarkus intercepta chamadas a métodos da própria classe.
+        save(cliente);
+    }
+
+    private void checkIfMatch(final String ifMatch, final Request request, final Cliente cliente) {
+        final Cliente atual = cache.find(cliente.id, versao(cliente.id, ifMatch));
+        final ResponseBuilder preconditionFailed = atual == null ?
+                                                        Response.status(Status.PRECONDITION_FAILED) :
+                                                        request.evaluatePreconditions(entityTag(atual));
+        if(preconditionFailed != null){
+            Response response = preconditionFailed
+                                        .entity("O cadastro foi alterado por outro usuário. Por favor, recarregue a página e tente novamente.")
+                                        .type(MediaType.TEXT_PLAIN)
+                                        .build();
+            throw new WebApplicationException(response);
+        }
+    }
+
     @Transactional
-    public void update(Cliente cliente) {
+    void save(Cliente cliente) {
         try{
-            if(Cliente.update(cliente))
+            if(Cliente.update(cliente)) {
+                //Obtém o cliente do contexto de persistência (sem acessar o BD), com a versão já incrementada.
+                cache.putAfterCommit(Cliente.findById(cliente.id));
                 return;
+            }
         }catch(OptimisticLockException e){
             Response response = Response.status(Status.CONFLICT)
                                         .entity("O cadastro foi alterado por outro usuário. Por favor, recarregue a página e tente novamente.")
@@ -65,5 +266,41 @@ public class ClienteResource {
         }
 
         cliente.delete();
+        cache.invalidateAfterCommit(id);
+    }
+
+    /**
+     * Cria a ETag de um cliente, formada pelo id e pela versão dele,
+     * que muda sempre que o cadastro do cliente é alterado.
+     */
+    private static EntityTag entityTag(final Cliente cliente) {
+        return new EntityTag(cliente.id + "-" + cliente.versao);
+    }
+
+    /**
+     * Obtém a maior versão de um cliente contida nas ETags de um cabeçalho If-Match ou If-None-Match.
+     * @param id id do cliente
+     * @param header valor do cabeçalho, contendo ETags separadas por vírgula (como {@code "1-3", "1-4"})
+     * @return a maior versão do cliente indicada no cabeçalho, ou 0 se não houver nenhuma
+     */
+    private static long versao(final long id, final String header) {
+        if(header == null){
+            return 0;
+        }
+
+        final String prefix = id + "-";
+        long versao = 0;
+        for (String tag : header.split(",")) {
+            tag = tag.trim().replaceFirst("^W/", "").replace("\"", "");
+            if(tag.startsWith(prefix)){
+                try {
+                    versao = Math.max(versao, Long.parseLong(tag.substring(prefix.length())));
+                } catch (NumberFormatException e) {
+                    //ETag inválida, que não foi gerada pelo servidor
+                }
+            }
+        }
+
+        return versao;
     }
 }
@@ -0,0 +1,103 @@
+package com.manoelcampos.chat.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.manoelcampos.chat.benchmarks.ChatClasses.*;
+
+/**
+ * Compara estratégias para obter o buffer onde os dados recebidos de um cliente são lidos,
+ * como feito no {@code ChatReactor.processRead()}: alocar um novo buffer (no heap ou direto)
+ * a cada leitura, reutilizar um buffer da própria thread ou obtê-lo do {@code ByteBufferPool}.
+ *
+ * <p>Cada operação simula uma leitura: copia {@link #readLength} bytes para o buffer e o consome.
+ * O pool é compartilhado entre as threads do benchmark, assim executar com {@code -t N}
+ * mostra também o custo da disputa pela sua fila de buffers livres.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferAllocationBenchmark {
+    /** Valor padrão de {@code chat.buffer.size}. */
+    private static final int BUFFER_SIZE = 1200;
+
+    /** Número de bytes obtidos em cada leitura. */
+    @Param({"64", "1024"})
+    private int readLength;
+
+    private byte[] receivedData;
+    private ByteBuffer threadHeapBuffer;
+    private ByteBuffer threadDirectBuffer;
+
+    /**
+     * Pool compartilhado por todas as threads do benchmark, assim como ocorre entre os reatores do servidor.
+     */
+    @State(Scope.Benchmark)
+    public static class SharedPool {
+        Object pool;
+
+        @Setup
+        public void setup() throws Throwable {
+            pool = (Object) POOL_NEW.invokeExact(BUFFER_SIZE, 64L * 1024 * 1024);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        receivedData = new byte[readLength];
+        ThreadLocalRandom.current().nextBytes(receivedData);
+        threadHeapBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        threadDirectBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    @Benchmark
+    public int heapPerRead() {
+        return read(ByteBuffer.allocate(BUFFER_SIZE));
+    }
+
+    @Benchmark
+    public int directPerRead() {
+        return read(ByteBuffer.allocateDirect(BUFFER_SIZE));
+    }
+
+    @Benchmark
+    public int reusedHeap() {
+        ((Buffer) threadHeapBuffer).clear();
+        return read(threadHeapBuffer);
+    }
+
+    @Benchmark
+    public int reusedDirect() {
+        ((Buffer) threadDirectBuffer).clear();
+        return read(threadDirectBuffer);
+    }
+
+    @Benchmark
+    public int pooledDirect(final SharedPool sharedPool) throws Throwable {
+        final ByteBuffer buffer = (ByteBuffer) POOL_ACQUIRE.invokeExact(sharedPool.pool);
+        try {
+            return read(buffer);
+        } finally {
+            POOL_RELEASE.invokeExact(sharedPool.pool, buffer);
+        }
+    }
+
+    /**
+     * Simula a leitura de dados recebidos no buffer e o processamento de tais dados.
+     */
+    private int read(final ByteBuffer buffer) {
+        buffer.put(receivedData);
+        //O cast para Buffer evita erro ao executar em Java 8 um código compilado em versões posteriores.
+        ((Buffer) buffer).flip();
+        return buffer.getInt(0) + buffer.get(buffer.limit() - 1);
+    }
+}
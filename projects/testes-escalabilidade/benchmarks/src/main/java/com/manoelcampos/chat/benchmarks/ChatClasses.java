@@ -0,0 +1,71 @@
+package com.manoelcampos.chat.benchmarks;
+
+import java.io.DataInputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+
+/**
+ * Dá acesso às classes dos servidores de chat usadas nos benchmarks.
+ *
+ * <p>As classes dos servidores estão no pacote padrão (sem nome), que não pode ser importado
+ * por classes de outros pacotes. Como o JMH não permite benchmarks no pacote padrão,
+ * os métodos de tais classes são obtidos por reflexão e chamados por meio de {@link MethodHandle}s.
+ * Por estarem em constantes ({@code static final}), tais chamadas são otimizadas pelo compilador JIT
+ * como se fossem chamadas diretas, não interferindo nos resultados.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+final class ChatClasses {
+    /** {@code ByteBuffer FrameCodec.encode(ByteBuffer payload)} */
+    static final MethodHandle FRAME_ENCODE = method("FrameCodec", "encode", ByteBuffer.class);
+
+    /** {@code ByteBuffer FrameCodec.nextFrame(ByteBuffer buffer)} */
+    static final MethodHandle FRAME_NEXT = method("FrameCodec", "nextFrame", ByteBuffer.class);
+
+    /** {@code byte[] FrameCodec.read(DataInputStream in)} */
+    static final MethodHandle FRAME_READ = method("FrameCodec", "read", DataInputStream.class);
+
+    /** {@code boolean FrameCodec.endsWith(ByteBuffer payload, byte[] suffix)} */
+    static final MethodHandle FRAME_ENDS_WITH = method("FrameCodec", "endsWith", ByteBuffer.class, byte[].class);
+
+    /** {@code new ByteBufferPool(int bufferSize, long maxMemory)}, retornando o pool como Object */
+    static final MethodHandle POOL_NEW = constructor("ByteBufferPool", int.class, long.class);
+
+    /** {@code ByteBuffer ByteBufferPool.acquire()}, recebendo o pool como Object */
+    static final MethodHandle POOL_ACQUIRE = method("ByteBufferPool", "acquire");
+
+    /** {@code void ByteBufferPool.release(ByteBuffer buffer)}, recebendo o pool como Object */
+    static final MethodHandle POOL_RELEASE = method("ByteBufferPool", "release", ByteBuffer.class);
+
+    private ChatClasses(){/**/}
+
+    /**
+     * Obtém um {@link MethodHandle} para um método de uma classe do pacote padrão.
+     * Métodos de instância recebem o objeto como primeiro parâmetro, do tipo Object.
+     */
+    private static MethodHandle method(final String className, final String name, final Class<?>... parameterTypes) {
+        try {
+            final Method method = Class.forName(className).getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+            final MethodHandle handle = MethodHandles.lookup().unreflect(method);
+            return Modifier.isStatic(method.getModifiers()) ? handle : handle.asType(handle.type().changeParameterType(0, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Não foi possível acessar " + className + "." + name, e);
+        }
+    }
+
+    private static MethodHandle constructor(final String className, final Class<?>... parameterTypes) {
+        try {
+            final Constructor<?> constructor = Class.forName(className).getDeclaredConstructor(parameterTypes);
+            constructor.setAccessible(true);
+            final MethodHandle handle = MethodHandles.lookup().unreflectConstructor(constructor);
+            return handle.asType(handle.type().changeReturnType(Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Não foi possível acessar o construtor de " + className, e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.manoelcampos.chat.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.manoelcampos.chat.benchmarks.ChatClasses.FRAME_ENDS_WITH;
+
+/**
+ * Compara formas de converter o conteúdo (byte[]) de uma mensagem recebida em texto
+ * e de verificar se ela é o comando de saída ("sair"):
+ * convertendo toda a mensagem para String ou comparando diretamente os bytes,
+ * como feito pelo {@code FrameCodec.endsWith()}.
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodingBenchmark {
+    private static final String EXIT_COMMAND = "sair";
+    private static final byte[] EXIT_COMMAND_BYTES = EXIT_COMMAND.getBytes(StandardCharsets.UTF_8);
+
+    /** Tamanho (em bytes) do conteúdo da mensagem. */
+    @Param({"16", "256", "1024"})
+    private int payloadLength;
+
+    private byte[] payload;
+    private ByteBuffer payloadBuffer;
+    private CharsetDecoder decoder;
+    private CharBuffer chars;
+
+    @Setup
+    public void setup() {
+        //Mensagens com caracteres ASCII imprimíveis, como as geradas pelos testes de escalabilidade
+        payload = new byte[payloadLength];
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (32 + random.nextInt(95));
+        }
+
+        payloadBuffer = ByteBuffer.wrap(payload);
+        decoder = StandardCharsets.UTF_8.newDecoder();
+        chars = CharBuffer.allocate(payloadLength);
+    }
+
+    @Benchmark
+    public String newStringUtf8() {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String newStringAscii() {
+        return new String(payload, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Decodifica usando um {@link CharsetDecoder} e um {@link CharBuffer} reutilizados, sem criar uma String.
+     */
+    @Benchmark
+    public int reusedDecoder() {
+        decoder.reset();
+        ((Buffer) chars).clear();
+        final CoderResult result = decoder.decode(payloadBuffer.duplicate(), chars, true);
+        return result.isError() ? -1 : chars.position();
+    }
+
+    @Benchmark
+    public boolean exitCheckDecoding() {
+        return new String(payload, StandardCharsets.UTF_8).endsWith(EXIT_COMMAND);
+    }
+
+    @Benchmark
+    public boolean exitCheckOnBytes() throws Throwable {
+        return (boolean) FRAME_ENDS_WITH.invokeExact(payloadBuffer, EXIT_COMMAND_BYTES);
+    }
+}
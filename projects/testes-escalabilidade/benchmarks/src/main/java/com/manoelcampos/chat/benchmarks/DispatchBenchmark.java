@@ -0,0 +1,128 @@
+package com.manoelcampos.chat.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.manoelcampos.chat.benchmarks.ChatClasses.*;
+
+/**
+ * Compara formas de processar os eventos retornados por uma chamada a {@code Selector.select()}:
+ * <ul>
+ *     <li>{@link #sequential(Blackhole)}: a própria thread do loop processa os eventos um a um,
+ *     como cada reator do {@code NonBlockingChatServer} no modo multi-reator;</li>
+ *     <li>{@link #parallelStream(Blackhole)}: os eventos são processados por uma parallel stream
+ *     (usando o ForkJoinPool comum), como no modo de reator único;</li>
+ *     <li>{@link #workerHandoff(Blackhole)}: cada evento é repassado a um pool de threads
+ *     e a thread do loop aguarda todos serem processados antes de voltar a selecionar eventos.</li>
+ * </ul>
+ *
+ * <p>O processamento de cada evento obtém os frames recebidos de um cliente
+ * e verifica se cada um é o comando de saída, como no {@code ChatReactor.processRead()}.
+ * Assim, é possível ver a partir de quantos eventos por iteração o custo de repassá-los
+ * a outras threads compensa.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    private static final byte[] EXIT_COMMAND = "sair".getBytes(StandardCharsets.UTF_8);
+    private static final int FRAMES_PER_EVENT = 4;
+    private static final int PAYLOAD_LENGTH = 256;
+
+    /** Número de eventos selecionados em cada iteração do loop. */
+    @Param({"1", "16", "256"})
+    private int events;
+
+    /** Dados recebidos de cada cliente cujo canal teve um evento selecionado. */
+    private List<ByteBuffer> selectedEvents;
+    private ExecutorService workers;
+
+    /** Resultado do processamento de cada evento pelas threads do pool, que não podem usar o {@link Blackhole}. */
+    private int[] workerResults;
+
+    @Setup
+    public void setup() throws Throwable {
+        final byte[] bytes = new byte[PAYLOAD_LENGTH];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        final ByteBuffer frame = (ByteBuffer) FRAME_ENCODE.invokeExact(ByteBuffer.wrap(bytes));
+
+        selectedEvents = new ArrayList<>(events);
+        for (int i = 0; i < events; i++) {
+            final ByteBuffer received = ByteBuffer.allocate(frame.remaining() * FRAMES_PER_EVENT);
+            for (int j = 0; j < FRAMES_PER_EVENT; j++) {
+                received.put(frame.duplicate());
+            }
+            selectedEvents.add(received);
+        }
+
+        workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        workerResults = new int[events];
+    }
+
+    @TearDown
+    public void tearDown() {
+        workers.shutdownNow();
+    }
+
+    @Benchmark
+    public void sequential(final Blackhole blackhole) {
+        for (final ByteBuffer received : selectedEvents) {
+            blackhole.consume(processEvent(received));
+        }
+    }
+
+    @Benchmark
+    public void parallelStream(final Blackhole blackhole) {
+        blackhole.consume(selectedEvents.parallelStream().mapToInt(DispatchBenchmark::processEvent).sum());
+    }
+
+    @Benchmark
+    public void workerHandoff(final Blackhole blackhole) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(events);
+        for (int i = 0; i < events; i++) {
+            final int index = i;
+            workers.execute(() -> {
+                workerResults[index] = processEvent(selectedEvents.get(index));
+                done.countDown();
+            });
+        }
+        done.await();
+        blackhole.consume(workerResults);
+    }
+
+    /**
+     * Processa os dados recebidos de um cliente.
+     * @param received buffer contendo os frames recebidos, que não tem sua posição alterada
+     * @return número de frames processados
+     */
+    private static int processEvent(final ByteBuffer received) {
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(received.array());
+            int frames = 0;
+            ByteBuffer msg;
+            while ((msg = (ByteBuffer) FRAME_NEXT.invokeExact(buffer)) != null) {
+                if (!(boolean) FRAME_ENDS_WITH.invokeExact(msg, EXIT_COMMAND)) {
+                    frames++;
+                }
+            }
+            return frames;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
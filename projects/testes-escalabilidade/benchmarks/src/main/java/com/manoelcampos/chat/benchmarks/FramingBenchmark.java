@@ -0,0 +1,86 @@
+package com.manoelcampos.chat.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.manoelcampos.chat.benchmarks.ChatClasses.*;
+
+/**
+ * Mede a codificação e a decodificação das mensagens delimitadas pelo {@code FrameCodec}:
+ * <ul>
+ *     <li>{@link #encode()}: gera o frame de uma mensagem a ser enviada;</li>
+ *     <li>{@link #parseBuffer(Blackhole)}: obtém os frames de um buffer lido de um canal não bloqueante,
+ *     como no {@code ChatReactor.processRead()};</li>
+ *     <li>{@link #readStream(Blackhole)}: lê os frames de um stream bloqueante,
+ *     como no {@code BlockingChatServer.getMsg()}.</li>
+ * </ul>
+ *
+ * <p>Os resultados são por operação, onde cada operação processa {@link #framesPerRead} frames
+ * (exceto a codificação, que gera apenas um).</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FramingBenchmark {
+    /** Tamanho (em bytes) do conteúdo de cada mensagem. */
+    @Param({"16", "256", "1024"})
+    private int payloadLength;
+
+    /** Número de frames recebidos em uma mesma leitura. */
+    @Param({"1", "16"})
+    private int framesPerRead;
+
+    private ByteBuffer payload;
+
+    /** Buffer contendo {@link #framesPerRead} frames, como recebidos de um cliente. */
+    private ByteBuffer received;
+    private byte[] receivedBytes;
+
+    @Setup
+    public void setup() throws Throwable {
+        final byte[] bytes = new byte[payloadLength];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        payload = ByteBuffer.wrap(bytes);
+
+        final ByteBuffer frame = (ByteBuffer) FRAME_ENCODE.invokeExact(payload);
+        received = ByteBuffer.allocate(frame.remaining() * framesPerRead);
+        for (int i = 0; i < framesPerRead; i++) {
+            received.put(frame.duplicate());
+        }
+        receivedBytes = received.array();
+    }
+
+    @Benchmark
+    public ByteBuffer encode() throws Throwable {
+        return (ByteBuffer) FRAME_ENCODE.invokeExact(payload);
+    }
+
+    @Benchmark
+    public void parseBuffer(final Blackhole blackhole) throws Throwable {
+        final ByteBuffer buffer = ByteBuffer.wrap(receivedBytes);
+        ByteBuffer msg;
+        while((msg = (ByteBuffer) FRAME_NEXT.invokeExact(buffer)) != null) {
+            blackhole.consume(msg);
+        }
+    }
+
+    @Benchmark
+    public void readStream(final Blackhole blackhole) throws Throwable {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new ByteArrayInputStream(receivedBytes)));
+        for (int i = 0; i < framesPerRead; i++) {
+            blackhole.consume((byte[]) FRAME_READ.invokeExact(in));
+        }
+    }
+}
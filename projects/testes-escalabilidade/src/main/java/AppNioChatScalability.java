@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Realiza testes de escalabilidade de tamanho no servidor de chat
+ * usando clientes não bloqueantes ({@link NioChatClient}).
+ *
+ * <p>Diferente do {@link AppSocketChatScalability}, que usa um {@link java.net.Socket} bloqueante
+ * por cliente e precisa aguardar a resposta de uma mensagem antes de enviar a próxima,
+ * aqui todos os clientes são multiplexados em poucos {@link java.nio.channels.Selector}s
+ * pelo {@link NioClientEngine}. Assim, uma única JVM pode simular centenas de milhares de clientes,
+ * e cada cliente pode ter várias mensagens em trânsito ao mesmo tempo.
+ * O número de threads de E/S é definido pela propriedade {@code chat.client.selectors}.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+public class AppNioChatScalability extends ChatScalabilityAbstract<NioChatClient> {
+    /**
+     * Número de threads, cada uma com seu próprio {@link java.nio.channels.Selector}, usadas para processar os clientes.
+     */
+    private static final int SELECTORS = Config.getInt("chat.client.selectors", Runtime.getRuntime().availableProcessors());
+
+    private final NioClientEngine engine;
+
+    /**
+     * Inicia a aplicação para testar a escalabilidade do servidor de chat usando clientes não bloqueantes.
+     * @param args Números IP a serem passados pela linha de comando,
+     *             nos quais o servidor de chat vai aceitar conexões.
+     *             Se nenhum parâmetro for passado, será tentado conexão em localhost
+     */
+    public static void main(String[] args) throws IOException {
+        final String server_ips[] = args.length == 0 ? new String[]{"localhost"} : args;
+
+        System.out.println(
+                "Aplicação de teste de escalabilidade de servidor de chat (clientes não bloqueantes) iniciada. " +
+                "Os clientes conectarão no servidor na porta " + ChatServerAbstract.PORT + " nos seguintes IPs:");
+        for (String server_ip : server_ips) {
+            System.out.println("\t"+server_ip);
+        }
+        System.out.println();
+
+        try(AppNioChatScalability app = new AppNioChatScalability(server_ips)){
+            app.start();
+        } catch (ConnectException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private AppNioChatScalability(final String serverIps[]) throws IOException {
+        super(serverIps);
+        this.engine = new NioClientEngine(SELECTORS, this::onMessageReceived);
+    }
+
+    @Override
+    protected NioChatClient newClient(final InetSocketAddress serverAddress, final InetAddress localAddress) throws IOException {
+        final NioChatClient client = engine.connect(serverAddress, localAddress);
+        client.awaitConnected(CONNECT_TIMEOUT_MS);
+        return client;
+    }
+
+    /**
+     * Enfileira uma mensagem para envio, sem aguardar a resposta.
+     * A resposta é registrada quando chegar, pela thread do {@link NioClientEngine}.
+     */
+    @Override
+    protected boolean sendMessage(final NioChatClient client, final ByteBuffer frame) {
+        return client.send(frame);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        try {
+            engine.close();
+        } catch (IOException e) {
+        }
+    }
+}
@@ -1,7 +1,11 @@
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Realiza testes de escalabilidade de tamanho no servidor de chat.
@@ -46,20 +50,52 @@ public class AppSocketChatScalability extends ChatScalabilityAbstract<Socket> {
     }
 
     @Override
-    protected Socket newClient(final String chatServerIp) throws IOException{
-        return new Socket(chatServerIp, ChatServerAbstract.PORT);
+    protected Socket newClient(final InetSocketAddress serverAddress, final InetAddress localAddress) throws IOException{
+        final Socket socket = new Socket();
+        try {
+            if (localAddress != null) {
+                socket.setReuseAddress(true);
+                socket.bind(new InetSocketAddress(localAddress, 0));
+            }
+
+            socket.connect(serverAddress, CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, RESPONSE_TIMEOUT_MS));
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
     }
 
+    /**
+     * Envia uma mensagem e aguarda a resposta do servidor.
+     * Como o socket é bloqueante, apenas uma mensagem por vez pode ser enviada por cada cliente.
+     * As mensagens recebidas que não são a resposta da mensagem enviada
+     * (como uma resposta atrasada de uma mensagem anterior) são descartadas,
+     * até que a resposta chegue ou o tempo limite termine.
+     */
     @Override
-    protected boolean sendMessage(final Socket client, final String msg) {
-        try {
-            OutputStream out = client.getOutputStream();
-            out.write(msg.getBytes());
-            out.flush();
-            return true;
-        } catch (IOException e) {
-            return false;
+    protected boolean sendMessage(final Socket client, final ByteBuffer frame) {
+        synchronized (client) {
+            try {
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RESPONSE_TIMEOUT_MS);
+                FrameCodec.write(client.getOutputStream(), frame);
+                final DataInputStream in = new DataInputStream(client.getInputStream());
+                do {
+                    final byte[] response = FrameCodec.read(in);
+                    if (response == null) {
+                        return false;
+                    }
+
+                    if (onMessageReceived(client, ByteBuffer.wrap(response))) {
+                        return true;
+                    }
+                } while (System.nanoTime() < deadline);
+
+                return false;
+            } catch (IOException e) {
+                return false;
+            }
         }
     }
 }
-
@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Realiza testes de escalabilidade no servidor de chat usando clientes WebSocket,
+ * devendo o servidor ser iniciado com {@code -Dchat.websocket=true}.
+ *
+ * <p>Assim como o {@link AppNioChatScalability}, todos os clientes são multiplexados
+ * em poucos {@link java.nio.channels.Selector}s pelo {@link NioClientEngine},
+ * permitindo simular milhares de sessões WebSocket sem interface (headless) a partir de uma única JVM.
+ * Cada cliente realiza o upgrade HTTP ao conectar (incluído no tempo de conexão)
+ * e envia as mensagens de teste em frames binários mascarados (veja {@link WebSocketCodec}).
+ * Como as mensagens e a forma de medir as latências são as mesmas,
+ * os resultados podem ser comparados com os do {@link AppNioChatScalability} (por meio do {@link ReportComparator})
+ * para avaliar o custo do protocolo WebSocket em relação ao TCP puro no mesmo hardware.
+ * O número de threads de E/S é definido pela propriedade {@code chat.client.selectors}.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+public class AppWebSocketChatScalability extends ChatScalabilityAbstract<NioChatClient> {
+    /**
+     * Número de threads, cada uma com seu próprio {@link java.nio.channels.Selector}, usadas para processar os clientes.
+     */
+    private static final int SELECTORS = Config.getInt("chat.client.selectors", Runtime.getRuntime().availableProcessors());
+
+    private final NioClientEngine engine;
+
+    /**
+     * Inicia a aplicação para testar a escalabilidade do servidor de chat usando clientes WebSocket.
+     * @param args Números IP a serem passados pela linha de comando,
+     *             nos quais o servidor de chat vai aceitar conexões.
+     *             Se nenhum parâmetro for passado, será tentado conexão em localhost
+     */
+    public static void main(String[] args) throws IOException {
+        final String server_ips[] = args.length == 0 ? new String[]{"localhost"} : args;
+
+        System.out.println(
+                "Aplicação de teste de escalabilidade de servidor de chat (clientes WebSocket) iniciada. " +
+                "Os clientes conectarão no servidor na porta " + ChatServerAbstract.PORT + " nos seguintes IPs:");
+        for (String server_ip : server_ips) {
+            System.out.println("\t"+server_ip);
+        }
+        System.out.println();
+
+        try(AppWebSocketChatScalability app = new AppWebSocketChatScalability(server_ips)){
+            app.start();
+        } catch (ConnectException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private AppWebSocketChatScalability(final String serverIps[]) throws IOException {
+        super(serverIps);
+        this.engine = new NioClientEngine(SELECTORS, true, this::onMessageReceived);
+    }
+
+    /**
+     * Abre a conexão de um novo cliente, aguardando até que o servidor aceite o upgrade para WebSocket.
+     */
+    @Override
+    protected NioChatClient newClient(final InetSocketAddress serverAddress, final InetAddress localAddress) throws IOException {
+        final NioChatClient client = engine.connect(serverAddress, localAddress);
+        client.awaitConnected(CONNECT_TIMEOUT_MS);
+        return client;
+    }
+
+    /**
+     * Converte a mensagem para um frame binário mascarado do WebSocket
+     * e a enfileira para envio, sem aguardar a resposta.
+     * A resposta é registrada quando chegar, pela thread do {@link NioClientEngine}.
+     */
+    @Override
+    protected boolean sendMessage(final NioChatClient client, final ByteBuffer frame) {
+        final ByteBuffer payload = frame.duplicate();
+        //O cast para Buffer evita erro ao executar em Java 8 um código compilado em versões posteriores.
+        ((Buffer)payload).position(payload.position() + FrameCodec.HEADER_LENGTH);
+        return client.send(WebSocketCodec.encodeMasked(WebSocketCodec.OP_BINARY, payload));
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        try {
+            engine.close();
+        } catch (IOException e) {
+        }
+    }
+}
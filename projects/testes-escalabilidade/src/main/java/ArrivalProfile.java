@@ -0,0 +1,143 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Perfil de chegada que define em quais instantes as conexões dos clientes
+ * são iniciadas pelos testes de escalabilidade, permitindo reproduzir
+ * diferentes padrões de carga que ocorrem em produção.
+ *
+ * <p>É definido por uma String em um dos formatos abaixo (onde as taxas são em conexões por segundo):</p>
+ * <ul>
+ *     <li>{@code constant:TAXA}: conexões numa taxa constante;</li>
+ *     <li>{@code ramp:TAXA_INICIAL:TAXA_FINAL:SEGUNDOS}: a taxa cresce linearmente
+ *     da inicial até a final durante o tempo indicado, permanecendo na final a partir daí;</li>
+ *     <li>{@code step:TAXA_INICIAL:INCREMENTO:SEGUNDOS}: a taxa começa na inicial
+ *     e aumenta pelo incremento indicado a cada intervalo de tempo (degraus);</li>
+ *     <li>{@code burst:TAMANHO:SEGUNDOS}: rajadas de conexões iniciadas ao mesmo tempo,
+ *     a cada intervalo de tempo, como quando todos os clientes tentam reconectar
+ *     após a reinicialização do servidor (thundering herd);</li>
+ *     <li>{@code poisson:TAXA}: conexões chegando aleatoriamente (processo de Poisson),
+ *     com intervalos entre elas seguindo uma distribuição exponencial com a taxa média indicada.</li>
+ * </ul>
+ *
+ * @author Manoel Campos da Silva Filho
+ * @see OpenLoopScheduler
+ */
+class ArrivalProfile {
+    private enum Type { CONSTANT, RAMP, STEP, BURST, POISSON }
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final String spec;
+    private final Type type;
+    private final double[] params;
+
+    /**
+     * Instancia um perfil de chegada a partir da sua especificação.
+     * @param spec especificação do perfil, como "ramp:100:5000:30"
+     * @throws IllegalArgumentException se a especificação for inválida
+     */
+    ArrivalProfile(final String spec) {
+        final String[] parts = spec.split(":");
+        try {
+            this.spec = spec;
+            this.type = Type.valueOf(parts[0].trim().toUpperCase());
+            this.params = new double[parts.length - 1];
+            for (int i = 0; i < params.length; i++) {
+                params[i] = Double.parseDouble(parts[i + 1].trim());
+                if(params[i] <= 0 && !(type == Type.STEP && i == 1)){
+                    throw new IllegalArgumentException("Os parâmetros devem ser positivos");
+                }
+            }
+
+            if(params.length != getParamsCount()){
+                throw new IllegalArgumentException("Número de parâmetros inválido");
+            }
+
+            if(type == Type.BURST && (params[0] < 1 || params[0] > Integer.MAX_VALUE || params[0] != Math.rint(params[0]))){
+                throw new IllegalArgumentException("O tamanho das rajadas deve ser um número inteiro maior que 0");
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException(
+                "Perfil de chegada inválido: " + spec + ". Use constant:TAXA, ramp:TAXA_INICIAL:TAXA_FINAL:SEGUNDOS, " +
+                "step:TAXA_INICIAL:INCREMENTO:SEGUNDOS, burst:TAMANHO:SEGUNDOS ou poisson:TAXA", e);
+        }
+    }
+
+    private int getParamsCount() {
+        switch (type) {
+            case RAMP: case STEP: return 3;
+            case BURST: return 2;
+            default: return 1;
+        }
+    }
+
+    /**
+     * Calcula os instantes em que as conexões devem ser iniciadas.
+     * @param count número de conexões
+     * @return um vetor com o instante de cada conexão (em nanossegundos), relativo ao início do teste
+     */
+    long[] schedule(final int count) {
+        switch (type) {
+            case CONSTANT: return OpenLoopScheduler.constantRate(count, params[0]);
+            case BURST: return burstSchedule(count);
+            default: return variableRateSchedule(count);
+        }
+    }
+
+    /**
+     * Calcula instantes onde conexões são iniciadas em rajadas, todas ao mesmo tempo.
+     */
+    private long[] burstSchedule(final int count) {
+        final int burstSize = (int) params[0];
+        final long intervalNanos = Math.round(params[1] * NANOS_PER_SECOND);
+        final long[] schedule = new long[count];
+        for (int i = 0; i < count; i++) {
+            schedule[i] = i / burstSize * intervalNanos;
+        }
+
+        return schedule;
+    }
+
+    /**
+     * Calcula instantes onde a taxa de conexões varia ao longo do tempo,
+     * sendo o intervalo até a próxima conexão calculado a partir da taxa no instante atual.
+     */
+    private long[] variableRateSchedule(final int count) {
+        final long[] schedule = new long[count];
+        double timeNanos = 0;
+        for (int i = 0; i < count; i++) {
+            schedule[i] = Math.round(timeNanos);
+            final double intervalNanos = NANOS_PER_SECOND / getRate(timeNanos / NANOS_PER_SECOND);
+            timeNanos += type == Type.POISSON ? -intervalNanos * Math.log(1 - ThreadLocalRandom.current().nextDouble()) : intervalNanos;
+        }
+
+        return schedule;
+    }
+
+    /**
+     * Obtém a taxa de conexões em um determinado instante.
+     * @param seconds instante (em segundos) desde o início do teste
+     * @return a taxa (em conexões por segundo)
+     */
+    private double getRate(final double seconds) {
+        final double rate;
+        switch (type) {
+            case RAMP:
+                rate = params[0] + (params[1] - params[0]) * Math.min(1, seconds / params[2]);
+                break;
+            case STEP:
+                rate = params[0] + params[1] * Math.floor(seconds / params[2]);
+                break;
+            default: rate = params[0];
+        }
+
+        //Evita intervalos infinitos se a taxa chegar a zero (como num degrau com incremento negativo)
+        return Math.max(rate, 1);
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
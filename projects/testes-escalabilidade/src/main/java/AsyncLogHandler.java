@@ -0,0 +1,279 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * Um {@link Handler} de log que grava os registros em arquivo de forma assíncrona.
+ *
+ * <p>Um {@link java.util.logging.FileHandler} grava cada registro no arquivo
+ * dentro de um método sincronizado. Se cada registro for imediatamente descarregado (flush) no disco,
+ * todas as threads que geram logs ficam enfileiradas aguardando a gravação umas das outras.
+ * Aqui, as threads apenas colocam os registros em um buffer circular (ring buffer) não bloqueante (lock-free),
+ * o que leva apenas alguns nanossegundos. Uma thread em segundo plano retira os registros do buffer
+ * e os grava no arquivo em lotes, descarregando-os no disco periodicamente
+ * ou sempre que um lote de {@link #BATCH_SIZE} registros é gravado.</p>
+ *
+ * <p>Se os registros forem gerados mais rapidamente do que podem ser gravados e o buffer encher,
+ * os novos registros são descartados, no lugar de bloquear as threads que os geraram.
+ * O total de registros descartados é contabilizado e gravado no log ao fechar o handler.</p>
+ *
+ * <p>Como os registros são formatados por outra thread, as informações de classe e método
+ * que geraram o log não são incluídas, pois obtê-las exige percorrer a pilha de chamadas da thread original.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+class AsyncLogHandler extends Handler {
+    /**
+     * Número máximo de registros no buffer aguardando gravação (arredondado para uma potência de 2).
+     */
+    private static final int CAPACITY = Integer.highestOneBit(Math.max(2, Config.getInt("chat.log.bufferSize", 8192) - 1) << 1);
+
+    /**
+     * Número de registros gravados a partir do qual o arquivo é descarregado no disco.
+     */
+    private static final int BATCH_SIZE = Config.getInt("chat.log.batchSize", 256);
+
+    /**
+     * Intervalo máximo (em milissegundos) para descarregar no disco os registros gravados.
+     */
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(Config.getLong("chat.log.flushIntervalMs", 1000));
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    /**
+     * Obtém o id da thread que gerou um registro, recebendo o {@link LogRecord} e retornando um long.
+     * {@code LogRecord.getThreadID()} está depreciado a partir do JDK 16, que introduziu {@code getLongThreadID()}.
+     * Como o projeto é compilado para Java 8, o método disponível no JDK atual é obtido por reflexão.
+     */
+    private static final MethodHandle THREAD_ID = threadIdGetter();
+
+    private final AtomicReferenceArray<LogRecord> ring;
+    private final int mask;
+
+    /** Posição onde o próximo registro será inserido no buffer, disputada pelas threads que geram logs. */
+    private final AtomicLong tail;
+
+    /** Posição do próximo registro a ser gravado, alterada apenas pela thread de gravação. */
+    private volatile long head;
+
+    /** Indica se a thread de gravação está aguardando novos registros. */
+    private volatile boolean writerWaiting;
+
+    private final LongAdder droppedRecords;
+    private final Writer writer;
+    private final Thread writerThread;
+
+    /** Usado para formatar os registros, sendo acessado apenas pela thread de gravação. */
+    private final StringBuilder lineBuilder;
+
+    /**
+     * Fuso horário usado nos registros. É obtido ao criar o handler pois, na primeira consulta,
+     * a JVM lê um arquivo com os fusos horários, o que falharia se os registros forem gerados
+     * justamente quando o limite de arquivos abertos foi atingido.
+     */
+    private final ZoneId zone;
+    private volatile boolean running;
+
+    /**
+     * Instancia um handler que grava os registros de log em um determinado arquivo,
+     * substituindo o conteúdo anterior.
+     * @param fileName nome do arquivo de log
+     */
+    AsyncLogHandler(final String fileName) throws IOException {
+        this.ring = new AtomicReferenceArray<>(CAPACITY);
+        this.mask = CAPACITY - 1;
+        this.tail = new AtomicLong();
+        this.droppedRecords = new LongAdder();
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8));
+        this.lineBuilder = new StringBuilder(256);
+        this.zone = ZoneId.systemDefault();
+        this.running = true;
+        this.writerThread = new Thread(this::writeRecords, "async-log-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Insere um registro no buffer para ser gravado pela thread de gravação.
+     * Se o buffer estiver cheio, o registro é descartado.
+     * @param record registro a ser gravado
+     */
+    @Override
+    public void publish(final LogRecord record) {
+        if(!running || !isLoggable(record)){
+            return;
+        }
+
+        long position;
+        do {
+            position = tail.get();
+            if(position - head >= CAPACITY){
+                droppedRecords.increment();
+                return;
+            }
+        } while(!tail.compareAndSet(position, position + 1));
+
+        ring.lazySet((int)(position & mask), record);
+
+        //Acorda a thread de gravação apenas quando há um lote completo a ser gravado
+        if(writerWaiting && position - head >= BATCH_SIZE){
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    /**
+     * Loop executado pela thread de gravação, que retira os registros do buffer e os grava no arquivo.
+     */
+    private void writeRecords() {
+        long lastFlush = System.nanoTime();
+        int unflushedRecords = 0;
+        while (running || head != tail.get()) {
+            final int index = (int)(head & mask);
+            final LogRecord record = ring.get(index);
+            if (record != null) {
+                ring.lazySet(index, null);
+                head++;
+                write(record);
+                unflushedRecords++;
+            }
+
+            final long now = System.nanoTime();
+            if (unflushedRecords >= BATCH_SIZE || (unflushedRecords > 0 && now - lastFlush >= FLUSH_INTERVAL_NANOS)) {
+                flush();
+                unflushedRecords = 0;
+                lastFlush = now;
+            }
+
+            if (record == null) {
+                /*O buffer está vazio ou uma thread reservou uma posição mas ainda não inseriu o registro.
+                 * Aguarda até o próximo descarregamento periódico ou até ser acordada.*/
+                if (unflushedRecords > 0) {
+                    waitForRecords(FLUSH_INTERVAL_NANOS - (now - lastFlush));
+                } else if(running) {
+                    waitForRecords(FLUSH_INTERVAL_NANOS);
+                } else Thread.yield();
+            }
+        }
+
+        flush();
+    }
+
+    /**
+     * Suspende a thread de gravação até que haja um lote completo de registros
+     * no buffer ou o tempo indicado tenha passado.
+     * @param nanos tempo máximo de espera (em nanossegundos)
+     */
+    private void waitForRecords(final long nanos) {
+        writerWaiting = true;
+        if(tail.get() - head < BATCH_SIZE) {
+            LockSupport.parkNanos(this, Math.max(0, nanos));
+        }
+        writerWaiting = false;
+    }
+
+    private void write(final LogRecord record) {
+        try {
+            writer.write(getFormatter() == null ? format(record) : getFormatter().format(record));
+        } catch (Exception e) {
+            reportError(null, e, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    /**
+     * Formata um registro de log em uma única linha, sem consultar a pilha de chamadas.
+     * @param record registro a ser formatado
+     * @return a linha formatada
+     */
+    private String format(final LogRecord record) {
+        final LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(record.getMillis()), zone);
+        lineBuilder.setLength(0);
+        DATE_TIME_FORMATTER.formatTo(time, lineBuilder);
+        return lineBuilder.append(' ').append(record.getLevel())
+                          .append(" [thread ").append(getThreadId(record)).append("] ")
+                          .append(record.getMessage()).append(System.lineSeparator())
+                          .toString();
+    }
+
+    private static MethodHandle threadIdGetter() {
+        final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        try {
+            return lookup.findVirtual(LogRecord.class, "getLongThreadID", MethodType.methodType(long.class));
+        } catch (ReflectiveOperationException e) {
+            try {
+                final MethodHandle getter = lookup.findVirtual(LogRecord.class, "getThreadID", MethodType.methodType(int.class));
+                return getter.asType(MethodType.methodType(long.class, LogRecord.class));
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalStateException("Não foi possível obter o id da thread dos registros de log", ex);
+            }
+        }
+    }
+
+    private static long getThreadId(final LogRecord record) {
+        try {
+            return (long) THREAD_ID.invokeExact(record);
+        } catch (Throwable e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void flush() {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            reportError(null, e, ErrorManager.FLUSH_FAILURE);
+        }
+    }
+
+    /**
+     * Obtém o número de registros descartados por não haver espaço no buffer.
+     */
+    long getDroppedRecords() {
+        return droppedRecords.sum();
+    }
+
+    /**
+     * Grava os registros ainda presentes no buffer e fecha o arquivo de log.
+     */
+    @Override
+    public void close() {
+        if(!running){
+            return;
+        }
+
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(TimeUnit.NANOSECONDS.toMillis(FLUSH_INTERVAL_NANOS) + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            if(getDroppedRecords() > 0) {
+                writer.write("Registros de log descartados por falta de espaço no buffer: " + getDroppedRecords() + System.lineSeparator());
+            }
+            writer.close();
+        } catch (IOException e) {
+            reportError(null, e, ErrorManager.CLOSE_FAILURE);
+        }
+    }
+}
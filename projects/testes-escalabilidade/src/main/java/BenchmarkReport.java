@@ -0,0 +1,241 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Armazena os resultados de uma execução dos testes de escalabilidade
+ * e os grava em arquivos que podem ser processados por outras ferramentas,
+ * permitindo acompanhar a evolução do desempenho dos servidores entre diferentes versões.
+ *
+ * <p>São gerados os seguintes arquivos, a partir de um nome base:</p>
+ * <ul>
+ *     <li>{@code NOME.json}: contém a configuração da execução, as métricas e as séries temporais;</li>
+ *     <li>{@code NOME-metrics.csv}: contém as métricas (como percentis de latência, vazão e número de erros),
+ *     indicando se valores menores ou maiores são melhores. É o arquivo usado pelo {@link ReportComparator};</li>
+ *     <li>{@code NOME-series.csv}: contém os contadores de cada segundo das séries temporais
+ *     (como conexões e mensagens por segundo).</li>
+ * </ul>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+class BenchmarkReport {
+    /**
+     * Indica se valores menores ou maiores de uma métrica representam um melhor desempenho.
+     */
+    enum Better { LOWER, HIGHER, NONE }
+
+    /**
+     * Uma métrica obtida em uma execução dos testes.
+     */
+    static final class Metric {
+        private final double value;
+        private final Better better;
+
+        Metric(final double value, final Better better) {
+            this.value = value;
+            this.better = better;
+        }
+
+        double getValue() {
+            return value;
+        }
+
+        Better getBetter() {
+            return better;
+        }
+    }
+
+    private static final String CSV_HEADER = "metric,value,better";
+
+    private final Map<String, String> config;
+    private final Map<String, Metric> metrics;
+    private final Map<String, TimeSeries> series;
+
+    BenchmarkReport() {
+        this.config = new LinkedHashMap<>();
+        this.metrics = new LinkedHashMap<>();
+        this.series = new LinkedHashMap<>();
+    }
+
+    /**
+     * Inclui um parâmetro de configuração da execução.
+     * @param name nome do parâmetro
+     * @param value valor do parâmetro
+     */
+    void addConfig(final String name, final Object value) {
+        config.put(name, String.valueOf(value));
+    }
+
+    /**
+     * Inclui uma métrica obtida na execução.
+     * @param name nome da métrica
+     * @param value valor da métrica
+     * @param better indica se valores menores ou maiores da métrica são melhores
+     */
+    void addMetric(final String name, final double value, final Better better) {
+        metrics.put(name, new Metric(value, better));
+    }
+
+    /**
+     * Inclui as estatísticas de latência de um histograma (em milissegundos) como métricas.
+     * @param prefix prefixo do nome das métricas, como "connect"
+     * @param histogram histograma com as latências
+     * @param percentiles percentis a serem incluídos
+     */
+    void addLatencies(final String prefix, final LatencyHistogram histogram, final double[] percentiles) {
+        addMetric(prefix + "_min_ms", LatencyHistogram.toMillis(histogram.getMin()), Better.LOWER);
+        addMetric(prefix + "_mean_ms", LatencyHistogram.toMillis(histogram.getMean()), Better.LOWER);
+        for (final double percentile : percentiles) {
+            final String name = String.format(Locale.US, "%s_p%s_ms", prefix, String.valueOf(percentile).replace(".0", "").replace('.', '_'));
+            addMetric(name, LatencyHistogram.toMillis(histogram.getValueAtPercentile(percentile)), Better.LOWER);
+        }
+        addMetric(prefix + "_max_ms", LatencyHistogram.toMillis(histogram.getMax()), Better.LOWER);
+    }
+
+    /**
+     * Inclui uma série temporal com contadores de cada segundo da execução.
+     * @param name nome da série
+     * @param timeSeries a série temporal
+     */
+    void addSeries(final String name, final TimeSeries timeSeries) {
+        series.put(name, timeSeries);
+    }
+
+    /**
+     * Grava os arquivos de resultados.
+     * @param basePath caminho e nome base dos arquivos, sem extensão
+     */
+    void write(final Path basePath) throws IOException {
+        final Path dir = basePath.toAbsolutePath().getParent();
+        if(dir != null) {
+            Files.createDirectories(dir);
+        }
+
+        final String baseName = basePath.getFileName().toString();
+        writeJson(basePath.resolveSibling(baseName + ".json"));
+        writeMetricsCsv(basePath.resolveSibling(baseName + "-metrics.csv"));
+        writeSeriesCsv(basePath.resolveSibling(baseName + "-series.csv"));
+    }
+
+    private void writeJson(final Path file) throws IOException {
+        try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println("{");
+            out.println("  \"config\": {");
+            int i = 0;
+            for (final Map.Entry<String, String> entry : config.entrySet()) {
+                out.printf("    %s: %s%s%n", quote(entry.getKey()), quote(entry.getValue()), ++i < config.size() ? "," : "");
+            }
+            out.println("  },");
+
+            out.println("  \"metrics\": {");
+            i = 0;
+            for (final Map.Entry<String, Metric> entry : metrics.entrySet()) {
+                out.printf("    %s: %s%s%n", quote(entry.getKey()), formatNumber(entry.getValue().getValue()), ++i < metrics.size() ? "," : "");
+            }
+            out.println("  },");
+
+            out.println("  \"series\": {");
+            i = 0;
+            for (final Map.Entry<String, TimeSeries> entry : series.entrySet()) {
+                writeJsonSeries(out, entry.getKey(), entry.getValue(), ++i < series.size());
+            }
+            out.println("  }");
+            out.println("}");
+        }
+    }
+
+    private void writeJsonSeries(final PrintWriter out, final String name, final TimeSeries timeSeries, final boolean hasNext) {
+        final String[] columns = timeSeries.getColumns();
+        out.printf("    %s: [%n", quote(name));
+        int i = 0;
+        final Map<Long, AtomicLongArray> seconds = timeSeries.getSeconds();
+        for (final Map.Entry<Long, AtomicLongArray> entry : seconds.entrySet()) {
+            final StringBuilder line = new StringBuilder("      {\"second\": ").append(entry.getKey());
+            for (int col = 0; col < columns.length; col++) {
+                line.append(", ").append(quote(columns[col])).append(": ").append(entry.getValue().get(col));
+            }
+            out.println(line.append('}').append(++i < seconds.size() ? "," : ""));
+        }
+        out.printf("    ]%s%n", hasNext ? "," : "");
+    }
+
+    private void writeMetricsCsv(final Path file) throws IOException {
+        try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println(CSV_HEADER);
+            for (final Map.Entry<String, Metric> entry : metrics.entrySet()) {
+                final Metric metric = entry.getValue();
+                out.printf("%s,%s,%s%n", entry.getKey(), formatNumber(metric.getValue()), metric.getBetter().name().toLowerCase());
+            }
+        }
+    }
+
+    private void writeSeriesCsv(final Path file) throws IOException {
+        try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println("series,second,event,count");
+            for (final Map.Entry<String, TimeSeries> entry : series.entrySet()) {
+                final String[] columns = entry.getValue().getColumns();
+                for (final Map.Entry<Long, AtomicLongArray> second : entry.getValue().getSeconds().entrySet()) {
+                    for (int col = 0; col < columns.length; col++) {
+                        out.printf("%s,%d,%s,%d%n", entry.getKey(), second.getKey(), columns[col], second.getValue().get(col));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Lê as métricas gravadas em um arquivo {@code NOME-metrics.csv}.
+     * @param file caminho do arquivo
+     * @return um mapa onde a chave é o nome da métrica
+     */
+    static Map<String, Metric> readMetrics(final Path file) throws IOException {
+        final Map<String, Metric> metrics = new LinkedHashMap<>();
+        try(BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                final String[] fields = line.split(",");
+                if(fields.length != 3 || line.equals(CSV_HEADER)){
+                    continue;
+                }
+
+                try {
+                    final Better better = Better.valueOf(fields[2].trim().toUpperCase());
+                    metrics.put(fields[0].trim(), new Metric(Double.parseDouble(fields[1].trim()), better));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Linha inválida no arquivo " + file + ": " + line, e);
+                }
+            }
+        }
+
+        return metrics;
+    }
+
+    private static String formatNumber(final double value) {
+        return value == Math.rint(value) && !Double.isInfinite(value) ? String.valueOf((long)value) : String.format(Locale.US, "%.6f", value);
+    }
+
+    private static String quote(final String value) {
+        final StringBuilder builder = new StringBuilder("\"");
+        for (final char c : value.toCharArray()) {
+            switch (c) {
+                case '"': builder.append("\\\""); break;
+                case '\\': builder.append("\\\\"); break;
+                case '\n': builder.append("\\n"); break;
+                case '\r': builder.append("\\r"); break;
+                case '\t': builder.append("\\t"); break;
+                default:
+                    if(c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+}
@@ -1,5 +1,13 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Aplicação servidora de chat utilizando a classe {@link ServerSocket}, 
@@ -12,12 +20,132 @@ import java.net.*;
  * que imprimir no terminal é uma tarefa
  * de I/O bloqueante que causa lentidão na aplicação.</p>
  *
+ * <p>Cada cliente é atendido por uma thread que fica bloqueada aguardando suas mensagens.
+ * O tipo de thread utilizado é definido pela propriedade {@code chat.threads}:</p>
+ * <ul>
+ *     <li>{@code platform} (padrão): uma thread do sistema operacional é criada para cada cliente.
+ *     O número de clientes fica limitado ao número máximo de threads que o SO permite criar
+ *     (como mostrado pela classe ThreadLimit);</li>
+ *     <li>{@code virtual}: uma thread virtual é criada para cada cliente.
+ *     Threads virtuais são gerenciadas pela JVM e, quando bloqueadas em operações de I/O,
+ *     liberam a thread do SO onde estavam executando. Assim, o mesmo código bloqueante
+ *     consegue atender centenas de milhares de clientes. Requer o JDK 21 ou superior;</li>
+ *     <li>{@code pool}: os clientes são atendidos por um pool com um número fixo de threads
+ *     ({@code chat.pool.threads}). Quando todas estão ocupadas, os novos clientes aguardam
+ *     em uma fila limitada ({@code chat.pool.queue}). Se a fila encher, a política de rejeição
+ *     ({@code chat.pool.rejection}) define se o cliente recebe uma mensagem de servidor ocupado
+ *     e é desconectado ({@code busy}) ou se o servidor para de aceitar conexões até que
+ *     haja espaço na fila ({@code pause}). Assim, uma sobrecarga degrada o serviço de forma controlada,
+ *     no lugar de causar erros de falta de memória.</li>
+ * </ul>
+ *
+ * <p>O número de clientes conectados simultaneamente é limitado por {@code chat.maxConnections}.
+ * Quando tal limite é atingido, o servidor para de aceitar conexões até que algum cliente desconecte
+ * (as novas conexões aguardam na fila de conexões pendentes do SO).</p>
+ *
+ * <p>Se o servidor aceitar conexões em várias portas ({@code chat.ports}),
+ * cada porta tem sua própria thread aguardando novas conexões.</p>
+ *
+ * <p>As mensagens distribuídas pela sala são enfileiradas na conexão de cada destinatário
+ * e escritas por um número limitado de threads de escrita ({@code chat.writer.threads}),
+ * e não pela thread do remetente (veja {@link ClientConnection}).
+ * Um cliente que para de ler suas mensagens é desconectado quando sua fila ultrapassa
+ * {@code chat.outbound.maxKB} ou quando uma escrita para ele fica bloqueada por mais de
+ * {@code chat.outbound.writeTimeoutMs}, liberando a thread de escrita. Assim, ele não bloqueia os demais.</p>
+ *
  * @author Manoel Campos da Silva Filho
  */
 public class BlockingChatServer extends ChatServerAbstract {
-    private final ServerSocket serverSocket;
-    private OutOfMemoryError outOfMemoryError;
-    private int clients;
+    /**
+     * Tipos de threads que podem ser usadas para atender os clientes.
+     */
+    private enum ThreadMode { PLATFORM, VIRTUAL, POOL }
+
+    /**
+     * Políticas para quando o pool de threads está sobrecarregado:
+     * desconectar o cliente informando que o servidor está ocupado
+     * ou parar de aceitar conexões até que haja espaço no pool.
+     */
+    private enum RejectionPolicy { BUSY, PAUSE }
+
+    private static final ThreadMode THREAD_MODE = Config.getEnum("chat.threads", ThreadMode.class, ThreadMode.PLATFORM);
+
+    private static final int POOL_THREADS = Config.getInt("chat.pool.threads", 200);
+    private static final int POOL_QUEUE_CAPACITY = Config.getInt("chat.pool.queue", 1000);
+    private static final RejectionPolicy POOL_REJECTION_POLICY =
+            Config.getEnum("chat.pool.rejection", RejectionPolicy.class, RejectionPolicy.BUSY);
+
+    /**
+     * Mensagem enviada aos clientes rejeitados quando o servidor está sobrecarregado.
+     */
+    private static final ByteBuffer BUSY_FRAME = FrameCodec.encode("servidor ocupado".getBytes(StandardCharsets.UTF_8));
+
+    /**
+     * Número máximo de clientes conectados simultaneamente.
+     */
+    private static final int MAX_CONNECTIONS = Config.getInt("chat.maxConnections", 200_000);
+
+    /**
+     * Tamanho (em bytes) do buffer de leitura de cada cliente, reutilizado durante toda a conexão.
+     */
+    private static final int READ_BUFFER_SIZE = Config.getInt("chat.buffer.size", 1200);
+
+    /**
+     * Total máximo de bytes que podem ficar pendentes de envio para um cliente.
+     * O mesmo limite é usado pelo {@link NonBlockingChatServer} (veja {@link ChatConnection}).
+     */
+    private static final long MAX_OUTBOUND_BYTES = Config.getLong("chat.outbound.maxKB", 256) * 1024;
+
+    /**
+     * Número de threads que escrevem as mensagens para os clientes (exceto com threads virtuais,
+     * onde cada cliente com mensagens pendentes tem sua própria thread virtual de escrita).
+     */
+    private static final int WRITER_THREADS = Math.max(1, Config.getInt("chat.writer.threads", 2 * Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Tempo máximo (em milissegundos) que a escrita de uma mensagem para um cliente pode ficar bloqueada.
+     * Após tal tempo, o cliente é desconectado, liberando a thread de escrita.
+     * Se for 0, as escritas não têm tempo limite.
+     */
+    private static final long WRITE_TIMEOUT_MS = Config.getLong("chat.outbound.writeTimeoutMs", 5000);
+
+    private final ServerSocket[] serverSockets;
+
+    /**
+     * Permissões para novas conexões, onde cada cliente conectado possui uma permissão,
+     * que é devolvida quando ele desconecta.
+     */
+    private final Semaphore connectionPermits;
+
+    /**
+     * Executor que atende os clientes usando threads virtuais ou um pool de threads,
+     * ou null se for criada uma thread do SO para cada cliente.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Executor que escreve as mensagens enfileiradas para os clientes.
+     * Uma tarefa de escrita só existe enquanto um cliente tem mensagens pendentes de envio.
+     */
+    private final ExecutorService writerExecutor;
+
+    /**
+     * Conexões que possuem uma tarefa de escrita em andamento,
+     * verificadas periodicamente para desconectar os clientes cuja escrita excedeu {@link #WRITE_TIMEOUT_MS}.
+     */
+    private final Set<ClientConnection> writingConnections;
+
+    /**
+     * Executor que verifica periodicamente as escritas bloqueadas, ou null se elas não têm tempo limite.
+     */
+    private final ScheduledExecutorService writeWatchdog;
+
+    /** Número de clientes desconectados por não haver espaço no pool de threads. */
+    private final LongAdder rejectedClients;
+
+    /** Número de vezes que o servidor parou de aceitar conexões por não haver espaço no pool de threads. */
+    private final LongAdder acceptPauses;
+    private volatile OutOfMemoryError outOfMemoryError;
 
     /**
      * Inicia o servidor de chat.
@@ -40,44 +168,305 @@ public class BlockingChatServer extends ChatServerAbstract {
         System.out.println("Security manager configuration file: " + fileName);
         System.setProperty("java.security.policy", fileName);
         outOfMemoryError = null;
+        connectionPermits = new Semaphore(MAX_CONNECTIONS);
+        rejectedClients = new LongAdder();
+        acceptPauses = new LongAdder();
+        executor = newExecutor();
+        writerExecutor = newWriterExecutor();
+        writingConnections = ConcurrentHashMap.newKeySet();
+        writeWatchdog = newWriteWatchdog();
 
         try {
-            serverSocket = new ServerSocket(PORT, MAX_PENDING_CONNECTIONS);
-            System.setSecurityManager(new MySecurityManager());
-            System.out.println("Servidor de chat bloqueante iniciado no endereço " + serverSocket.getInetAddress()+":"+PORT);
+            serverSockets = new ServerSocket[PORTS];
+            for (int i = 0; i < PORTS; i++) {
+                serverSockets[i] = new ServerSocket(getPort(i), MAX_PENDING_CONNECTIONS);
+            }
+
+            //As métricas são publicadas antes de instalar o SecurityManager, que restringiria o registro do MBean.
+            publishMetrics();
+            if(THREAD_MODE == ThreadMode.PLATFORM) {
+                installSecurityManager();
+            }
+            System.out.println(
+                "Servidor de chat bloqueante iniciado no endereço " + serverSockets[0].getInetAddress()+":"+PORT +
+                (PORTS > 1 ? " (portas " + PORT + " a " + getPort(PORTS - 1) + ")" : "") +
+                " usando threads " + THREAD_MODE.name().toLowerCase());
         } catch (IOException e) {
             throw new IOException("Erro ao iniciar servidor: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Instala o {@link MySecurityManager}, que está depreciado e não é permitido
+     * por padrão a partir do JDK 18. Nestes casos, o servidor continua sem ele.
+     */
+    @SuppressWarnings("removal")
+    private void installSecurityManager() {
+        try {
+            System.setSecurityManager(new MySecurityManager());
+        } catch (UnsupportedOperationException e) {
+            System.err.println("SecurityManager não suportado pelo JDK atual: " + e.getMessage());
+        }
+    }
+
+    private ExecutorService newExecutor() {
+        switch (THREAD_MODE) {
+            case VIRTUAL: return newVirtualThreadPerTaskExecutor();
+            case POOL: return newBoundedThreadPool();
+            default: return null;
+        }
+    }
+
+    /**
+     * Cria o executor que escreve as mensagens para os clientes: threads virtuais se os clientes
+     * são atendidos por elas, ou um número fixo de threads do SO ({@link #WRITER_THREADS}), caso contrário.
+     * Assim, o número de threads do servidor continua limitado, independente de quantos clientes estejam lentos.
+     * As threads do pool que atende os clientes não são usadas, pois ficam bloqueadas lendo as mensagens.
+     * Cada conexão tem no máximo uma tarefa de escrita na fila do executor,
+     * e suas mensagens pendentes são limitadas por {@link #MAX_OUTBOUND_BYTES}.
+     */
+    private ExecutorService newWriterExecutor() {
+        if(THREAD_MODE == ThreadMode.VIRTUAL) {
+            return newVirtualThreadPerTaskExecutor();
+        }
+
+        final AtomicLong threadCount = new AtomicLong();
+        return Executors.newFixedThreadPool(WRITER_THREADS, task -> {
+            final Thread thread = new Thread(task, "writer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Inicia a verificação periódica das escritas que estão bloqueadas há mais de {@link #WRITE_TIMEOUT_MS}.
+     * @return o executor que faz a verificação, ou null se as escritas não têm tempo limite
+     */
+    private ScheduledExecutorService newWriteWatchdog() {
+        if(WRITE_TIMEOUT_MS <= 0) {
+            return null;
+        }
+
+        final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(task -> {
+            final Thread thread = new Thread(task, "write-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        final long periodMs = Math.max(1, WRITE_TIMEOUT_MS / 4);
+        watchdog.scheduleAtFixedRate(this::closeBlockedWriters, periodMs, periodMs, TimeUnit.MILLISECONDS);
+        return watchdog;
+    }
+
+    /**
+     * Desconecta os clientes cuja escrita atual está bloqueada há mais de {@link #WRITE_TIMEOUT_MS}.
+     * Fechar o socket interrompe a escrita bloqueada com um erro, liberando a thread de escrita.
+     */
+    private void closeBlockedWriters() {
+        final long nowNanos = System.nanoTime();
+        final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(WRITE_TIMEOUT_MS);
+        for (final ClientConnection connection : writingConnections) {
+            if(connection.isWriteBlocked(nowNanos, timeoutNanos)) {
+                LOGGER.warning("Cliente lento desconectado: escrita bloqueada por mais de " + WRITE_TIMEOUT_MS + " ms");
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Cria um pool com um número fixo de threads e uma fila limitada de clientes aguardando atendimento.
+     * @return o pool de threads
+     */
+    private ThreadPoolExecutor newBoundedThreadPool() {
+        final RejectedExecutionHandler rejectionHandler =
+                POOL_REJECTION_POLICY == RejectionPolicy.PAUSE ? this::pauseAccepting : this::rejectClient;
+        return new ThreadPoolExecutor(
+                POOL_THREADS, POOL_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(POOL_QUEUE_CAPACITY), rejectionHandler);
+    }
+
+    /**
+     * Desconecta um cliente que não pôde ser incluído no pool de threads,
+     * informando que o servidor está ocupado.
+     * @param task tarefa que atenderia o cliente
+     * @param pool pool de threads que rejeitou a tarefa
+     */
+    private void rejectClient(final Runnable task, final ThreadPoolExecutor pool) {
+        rejectedClients.increment();
+        ((ClientTask)task).reject();
+    }
+
+    /**
+     * Bloqueia a thread que aceita conexões até que haja espaço na fila do pool de threads
+     * para o novo cliente. Enquanto isso, novas conexões aguardam na fila de conexões pendentes do SO.
+     * @param task tarefa que atenderá o cliente
+     * @param pool pool de threads que rejeitou a tarefa
+     */
+    private void pauseAccepting(final Runnable task, final ThreadPoolExecutor pool) {
+        acceptPauses.increment();
+        try {
+            pool.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejectClient(task, pool);
+        }
+    }
+
+    /**
+     * Cria um executor que inicia uma nova thread virtual para cada tarefa.
+     * Como o projeto é compilado para Java 8, o executor é obtido por reflexão,
+     * estando disponível apenas ao executar o servidor no JDK 21 ou superior.
+     * @return o executor de threads virtuais
+     * @throws UnsupportedOperationException se o JDK atual não suporta threads virtuais
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException(
+                "Threads virtuais requerem o JDK 21 ou superior. JDK atual: " + System.getProperty("java.version"), e);
+        }
+    }
+
     private void start() {
+        if(executor instanceof ThreadPoolExecutor) {
+            startPoolStatsPrinter();
+        }
+
         System.out.println("Aguardando conexões de clients...");
-        while (true) {
+        for (int i = 1; i < serverSockets.length; i++) {
+            final ServerSocket serverSocket = serverSockets[i];
+            new Thread(() -> acceptConnections(serverSocket), "acceptor-" + serverSocket.getLocalPort()).start();
+        }
+
+        acceptConnections(serverSockets[0]);
+    }
+
+    /**
+     * Aceita as conexões recebidas em uma das portas do servidor,
+     * iniciando uma thread para atender cada cliente.
+     * @param serverSocket socket que aceita conexões em uma das portas do servidor
+     */
+    private void acceptConnections(final ServerSocket serverSocket) {
+        while (!serverSocket.isClosed()) {
             try {
-                final Socket socket = serverSocket.accept();
+                acquireConnectionPermit();
+                final Socket socket = acceptConnection(serverSocket);
+                metrics.connectionAccepted();
                 startClientThread(socket);
-                clients++;
             }catch(IOException| OutOfMemoryError e){
-                LOGGER.severe("Erro ao processar conexão de novo cliente #" + clients + ": " + e.getMessage());
+                LOGGER.severe("Erro ao processar conexão de novo cliente #" + metrics.getConnectionsAccepted() + ": " + e.getMessage());
             }
         }
     }
 
+    /**
+     * Imprime periodicamente a situação do pool de threads,
+     * permitindo acompanhar como o servidor se comporta sob sobrecarga.
+     */
+    private void startPoolStatsPrinter() {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            final Thread thread = new Thread(task, "pool-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduler.scheduleAtFixedRate(this::printPoolStats, 10, 10, TimeUnit.SECONDS);
+    }
+
+    private void printPoolStats() {
+        System.out.printf(
+            "Clientes ativos: %d | aguardando no pool: %d | rejeitados: %d | pausas na aceitação de conexões: %d\n",
+            getActiveClients(), getQueuedClients(), getRejectedClients(), getAcceptPauses());
+    }
+
+    /**
+     * Obtém uma permissão para aceitar uma nova conexão,
+     * aguardando algum cliente desconectar caso o limite de conexões tenha sido atingido.
+     */
+    private void acquireConnectionPermit() {
+        if(connectionPermits.tryAcquire()){
+            return;
+        }
+
+        LOGGER.warning("Limite de " + MAX_CONNECTIONS + " conexões atingido. Aguardando clientes desconectarem.");
+        connectionPermits.acquireUninterruptibly();
+    }
+
+    private Socket acceptConnection(final ServerSocket serverSocket) throws IOException {
+        try {
+            return serverSocket.accept();
+        } catch (IOException | RuntimeException | Error e) {
+            connectionPermits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Inicia uma thread para aguardar as mensagens de um cliente,
+     * devolvendo a permissão de conexão do cliente quando ele desconectar.
+     * @param socket socket do cliente
+     */
     private void startClientThread(final Socket socket) {
+        final ClientTask clientTask = new ClientTask(socket);
+        if(executor != null){
+            executor.execute(clientTask);
+            return;
+        }
+
         try {
-            new Thread(() -> waitClientMessages(socket)).start();
+            new Thread(clientTask).start();
             this.outOfMemoryError = null;
         }catch(OutOfMemoryError e){
-            final String msg = "Erro ao tentar criar Thread pra novo cliente #" + clients + ": "+ e.getMessage();
+            final String msg = "Erro ao tentar criar Thread pra novo cliente #" + metrics.getConnectionsAccepted() + ": "+ e.getMessage();
             if(outOfMemoryError == null){
                 System.err.println(msg);
             }
             LOGGER.severe(msg);
             this.outOfMemoryError = e;
-            closeSocket(socket);
+            releaseConnection(socket);
         }
     }
 
+    /**
+     * Obtém o número de clientes conectados no momento.
+     */
+    int getLiveConnections() {
+        return MAX_CONNECTIONS - connectionPermits.availablePermits();
+    }
+
+    /**
+     * Obtém o número de clientes sendo atendidos pelas threads do pool.
+     */
+    int getActiveClients() {
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getActiveCount() : getLiveConnections();
+    }
+
+    /**
+     * Obtém o número de clientes conectados aguardando uma thread do pool para serem atendidos.
+     */
+    int getQueuedClients() {
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+    }
+
+    long getRejectedClients() {
+        return rejectedClients.sum();
+    }
+
+    long getAcceptPauses() {
+        return acceptPauses.sum();
+    }
+
+    /**
+     * Fecha a conexão de um cliente, devolvendo sua permissão de conexão.
+     * @param socket socket do cliente
+     */
+    private void releaseConnection(final Socket socket) {
+        closeSocket(socket);
+        connectionPermits.release();
+        metrics.connectionClosed();
+    }
+
     private void closeSocket(final Closeable socket) {
         try {
             socket.close();
@@ -86,24 +475,45 @@ public class BlockingChatServer extends ChatServerAbstract {
     }
 
     private void waitClientMessages(final Socket socket){
-        String msg;
-        /*Não faz nada com a mensagem pois o objetivo é apenas recebê-la.
-        * Numa aplicação real, a mensagem seria usada para algo.*/
-        while((msg = getMsg(socket)) != null){
-            if(msg.endsWith("sair")){
-                break;
-            }
+        final ClientConnection connection;
+        try {
+            connection = new ClientConnection(socket, metrics, writerExecutor, writingConnections);
+        } catch (IOException e) {
+            LOGGER.warning("Erro ao obter streams do cliente: " + e.getMessage());
+            closeSocket(socket);
+            return;
         }
 
-        closeSocket(socket);
+        room.join(connection);
+        try {
+            ByteBuffer msg;
+            while ((msg = getMsg(connection)) != null) {
+                if (isExitCommand(msg)) {
+                    break;
+                }
+
+                deliver(connection, msg);
+            }
+        } finally {
+            room.leave(connection);
+            connection.close();
+        }
     }
 
-    private String getMsg(final Socket socket) {
+    /**
+     * Obtém a próxima mensagem de um cliente.
+     * @param connection conexão do cliente
+     * @return o conteúdo da mensagem, que só é válido até a próxima leitura,
+     *         ou null se o cliente desconectou
+     */
+    private ByteBuffer getMsg(final ClientConnection connection) {
         try {
-            final byte[] bytes = new byte[1024];
-            final int bytesRead = socket.getInputStream().read(bytes);
-            if(bytesRead!=-1)
-                return new String(bytes, 0, bytesRead);
+            final ByteBuffer msg = connection.decoder.next();
+            if(msg != null) {
+                metrics.bytesRead(FrameCodec.HEADER_LENGTH + msg.remaining());
+                metrics.messageReceived();
+            }
+            return msg;
         } catch (IOException e) {
             LOGGER.warning("Erro ao ler mensagem do cliente: " + e.getMessage());
         }
@@ -113,13 +523,26 @@ public class BlockingChatServer extends ChatServerAbstract {
     @Override
     public void close() throws IOException {
         System.out.println("Finalizando servidor");
-        serverSocket.close();
+        for (final ServerSocket serverSocket : serverSockets) {
+            serverSocket.close();
+        }
+        if(executor != null) {
+            executor.shutdownNow();
+        }
+        writerExecutor.shutdownNow();
+        if(writeWatchdog != null) {
+            writeWatchdog.shutdownNow();
+        }
+        printPoolStats();
+        System.out.println(metrics);
+        metrics.close();
     }
 
     /**
      * Um {@link SecurityManager} que vai negar conexões se um erro {@link OutOfMemoryError}
      * acabou de ocorrer.
      */
+    @SuppressWarnings("removal")
     private class MySecurityManager extends SecurityManager {
         @Override
         public void checkAccept(String host, int port) {
@@ -130,4 +553,180 @@ public class BlockingChatServer extends ChatServerAbstract {
             super.checkAccept(host, port);
         }
     }
+
+    /**
+     * Tarefa que atende um cliente, aguardando suas mensagens até que ele desconecte.
+     * Ao terminar, devolve a permissão de conexão do cliente.
+     */
+    private final class ClientTask implements Runnable {
+        private final Socket socket;
+
+        ClientTask(final Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            try {
+                waitClientMessages(socket);
+            } finally {
+                releaseConnection(socket);
+            }
+        }
+
+        /**
+         * Desconecta o cliente sem atendê-lo, informando que o servidor está ocupado.
+         */
+        void reject() {
+            try {
+                FrameCodec.write(socket.getOutputStream(), BUSY_FRAME);
+            } catch (IOException e) {
+                LOGGER.warning("Erro ao informar cliente que o servidor está ocupado: " + e.getMessage());
+            } finally {
+                releaseConnection(socket);
+            }
+        }
+    }
+
+    /**
+     * Representa a conexão de um cliente, permitindo que ele receba
+     * as mensagens enviadas para a sala de chat.
+     *
+     * <p>Como os sockets são bloqueantes, uma escrita pode ficar bloqueada indefinidamente
+     * se o cliente parar de ler as mensagens (e o buffer de envio do SO encher).
+     * Por isso, as mensagens são apenas enfileiradas pela thread do remetente
+     * e escritas por uma tarefa do {@link #writerExecutor}, iniciada quando a fila deixa de estar vazia
+     * e encerrada quando ela esvazia. Assim, um cliente lento bloqueia apenas sua própria tarefa de escrita.
+     * Se o total de bytes pendentes de envio ultrapassar {@link #MAX_OUTBOUND_BYTES},
+     * o cliente é desconectado, como no {@link NonBlockingChatServer}.
+     * Como as threads de escrita são limitadas, o cliente também é desconectado se uma escrita
+     * ficar bloqueada por mais de {@link #WRITE_TIMEOUT_MS} (veja {@link #isWriteBlocked(long, long)}).</p>
+     */
+    private static class ClientConnection implements ChatSubscriber, Closeable {
+        private final Socket socket;
+        private final FrameDecoder decoder;
+        private final OutputStream out;
+        private final ServerMetrics metrics;
+        private final ExecutorService writerExecutor;
+        private final Queue<ByteBuffer> outboundQueue;
+        private final AtomicLong outboundBytes;
+
+        /**
+         * Indica se há uma tarefa escrevendo as mensagens enfileiradas.
+         */
+        private final AtomicBoolean writing;
+
+        /**
+         * Conexões com tarefa de escrita em andamento, onde esta conexão é incluída enquanto escreve.
+         */
+        private final Set<ClientConnection> writingConnections;
+
+        /**
+         * Instante (obtido por {@link System#nanoTime()}) em que a escrita atual foi iniciada,
+         * ou 0 se não há escrita em andamento.
+         */
+        private volatile long writeStartNanos;
+        private volatile boolean closed;
+
+        ClientConnection(
+                final Socket socket, final ServerMetrics metrics,
+                final ExecutorService writerExecutor, final Set<ClientConnection> writingConnections) throws IOException
+        {
+            this.socket = socket;
+            this.decoder = new FrameDecoder(socket.getInputStream(), READ_BUFFER_SIZE);
+            this.out = socket.getOutputStream();
+            this.metrics = metrics;
+            this.writerExecutor = writerExecutor;
+            this.writingConnections = writingConnections;
+            this.outboundQueue = new ConcurrentLinkedQueue<>();
+            this.outboundBytes = new AtomicLong();
+            this.writing = new AtomicBoolean();
+        }
+
+        /**
+         * Enfileira um frame para ser enviado ao cliente, sem bloquear a thread que chamou o método.
+         * Pode ser chamado por qualquer thread.
+         * @param frame {@inheritDoc}
+         * @return {@inheritDoc}
+         */
+        @Override
+        public boolean send(final ByteBuffer frame) {
+            if(closed){
+                return false;
+            }
+
+            final long pendingBytes = outboundBytes.addAndGet(frame.remaining());
+            if(pendingBytes > MAX_OUTBOUND_BYTES){
+                LOGGER.warning("Cliente lento desconectado: " + pendingBytes + " bytes pendentes de envio");
+                close();
+                return false;
+            }
+
+            outboundQueue.add(frame);
+            if(writing.compareAndSet(false, true)) {
+                try {
+                    writerExecutor.execute(this::writeQueuedFrames);
+                } catch (RejectedExecutionException | OutOfMemoryError e) {
+                    LOGGER.warning("Erro ao iniciar escrita para o cliente: " + e.getMessage());
+                    close();
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Escreve os frames enfileirados até a fila esvaziar.
+         * Apenas uma tarefa de escrita é executada por vez para cada conexão.
+         */
+        private void writeQueuedFrames() {
+            writingConnections.add(this);
+            try {
+                do {
+                    ByteBuffer frame;
+                    while ((frame = outboundQueue.poll()) != null) {
+                        writeStartNanos = System.nanoTime();
+                        FrameCodec.write(out, frame);
+                        writeStartNanos = 0;
+                        outboundBytes.addAndGet(-frame.remaining());
+                        metrics.bytesWritten(frame.remaining());
+                        metrics.messagesSent(1);
+                    }
+
+                    writing.set(false);
+                    //Um frame pode ter sido enfileirado depois da fila esvaziar e antes da escrita ser liberada.
+                } while (!outboundQueue.isEmpty() && writing.compareAndSet(false, true));
+            } catch (IOException e) {
+                close();
+            } finally {
+                writeStartNanos = 0;
+                writingConnections.remove(this);
+            }
+        }
+
+        /**
+         * Verifica se a escrita atual para o cliente está bloqueada há mais que um tempo limite.
+         * @param nowNanos instante atual, obtido por {@link System#nanoTime()}
+         * @param timeoutNanos tempo limite em nanossegundos
+         */
+        boolean isWriteBlocked(final long nowNanos, final long timeoutNanos) {
+            final long startNanos = writeStartNanos;
+            return startNanos != 0 && nowNanos - startNanos > timeoutNanos;
+        }
+
+        /**
+         * Fecha o socket do cliente, descartando as mensagens pendentes de envio.
+         * A thread que lê as mensagens do cliente é liberada pelo erro de leitura.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            outboundQueue.clear();
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
 }
@@ -0,0 +1,149 @@
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool de {@link ByteBuffer}s diretos (alocados fora do heap da JVM) de tamanho fixo,
+ * usados para ler os dados recebidos dos clientes e enviar os dados a eles sem gerar lixo a cada operação.
+ *
+ * <p>Alocar um buffer direto é caro. Por isso os buffers são alocados em blocos (slabs)
+ * de {@link #SLAB_SIZE} bytes, que são fatiados em vários buffers do tamanho indicado.
+ * A memória total alocada fora do heap é limitada a um valor máximo.
+ * Quando tal limite é atingido e não há buffers livres, o pool está esgotado
+ * e um buffer comum (no heap) é retornado, que é simplesmente descartado ao ser devolvido.</p>
+ *
+ * <p>A lista de buffers livres é uma fila não bloqueante (lock-free),
+ * permitindo que o pool seja compartilhado por diferentes threads.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+class ByteBufferPool {
+    /**
+     * Tamanho (em bytes) de cada bloco de memória alocado fora do heap,
+     * que é fatiado em vários buffers.
+     */
+    private static final int SLAB_SIZE = 1024 * 1024;
+
+    private final int bufferSize;
+    private final int buffersPerSlab;
+    private final long maxMemory;
+    private final Queue<ByteBuffer> freeBuffers;
+    private final AtomicLong allocatedMemory;
+
+    /** Número de buffers obtidos da lista de livres. */
+    private final LongAdder hits;
+
+    /** Número de vezes que não havia buffer livre e um novo bloco teve que ser alocado. */
+    private final LongAdder misses;
+
+    /** Número de vezes que o limite de memória foi atingido e um buffer no heap teve que ser criado. */
+    private final LongAdder exhaustions;
+
+    /**
+     * Instancia um pool de buffers.
+     * @param bufferSize tamanho (em bytes) de cada buffer
+     * @param maxMemory total máximo de memória (em bytes) que pode ser alocada fora do heap
+     */
+    ByteBufferPool(final int bufferSize, final long maxMemory) {
+        if(bufferSize <= 0){
+            throw new IllegalArgumentException("O tamanho dos buffers deve ser maior que zero");
+        }
+
+        this.bufferSize = bufferSize;
+        this.buffersPerSlab = (int)Math.max(1, Math.min(SLAB_SIZE, maxMemory) / bufferSize);
+        this.maxMemory = maxMemory;
+        this.freeBuffers = new ConcurrentLinkedQueue<>();
+        this.allocatedMemory = new AtomicLong();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.exhaustions = new LongAdder();
+    }
+
+    /**
+     * Obtém um buffer vazio do pool, que deve ser devolvido por meio de {@link #release(ByteBuffer)}
+     * depois de utilizado.
+     * @return um buffer direto ou, se o pool estiver esgotado, um buffer no heap
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = freeBuffers.poll();
+        if(buffer != null){
+            hits.increment();
+        } else if(allocateSlab() && (buffer = freeBuffers.poll()) != null){
+            misses.increment();
+        } else {
+            exhaustions.increment();
+            return ByteBuffer.allocate(bufferSize);
+        }
+
+        /*O cast para Buffer evita erro ao executar em Java 8 um código compilado em versões posteriores,
+        onde o método clear() de ByteBuffer passou a retornar ByteBuffer no lugar de Buffer.*/
+        ((Buffer)buffer).clear();
+        return buffer;
+    }
+
+    /**
+     * Devolve um buffer ao pool.
+     * Buffers que não foram alocados pelo pool são descartados.
+     * @param buffer buffer a ser devolvido
+     */
+    void release(final ByteBuffer buffer) {
+        if(buffer != null && buffer.isDirect() && buffer.capacity() == bufferSize) {
+            freeBuffers.offer(buffer);
+        }
+    }
+
+    /**
+     * Aloca um novo bloco de memória fora do heap e o divide em buffers,
+     * adicionados à lista de livres, caso o limite de memória ainda não tenha sido atingido.
+     * @return true se o bloco foi alocado, false se o limite de memória foi atingido
+     */
+    private boolean allocateSlab() {
+        final long slabSize = (long)bufferSize * buffersPerSlab;
+        long current;
+        do {
+            current = allocatedMemory.get();
+            if(current + slabSize > maxMemory){
+                return false;
+            }
+        } while(!allocatedMemory.compareAndSet(current, current + slabSize));
+
+        final ByteBuffer slab = ByteBuffer.allocateDirect((int)slabSize);
+        for (int i = 0; i < buffersPerSlab; i++) {
+            ((Buffer)slab).limit((i+1) * bufferSize);
+            ((Buffer)slab).position(i * bufferSize);
+            freeBuffers.offer(slab.slice());
+        }
+
+        return true;
+    }
+
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    long getAllocatedMemory() {
+        return allocatedMemory.get();
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getExhaustions() {
+        return exhaustions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "Pool de buffers: %d KB alocados fora do heap (máx. %d KB) | acertos: %d | faltas: %d | esgotamentos: %d",
+                getAllocatedMemory()/1024, maxMemory/1024, getHits(), getMisses(), getExhaustions());
+    }
+}
@@ -0,0 +1,453 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Representa a conexão de um cliente com o {@link NonBlockingChatServer},
+ * sendo anexada à {@link SelectionKey} do canal do cliente.
+ *
+ * <p>Armazena um frame recebido parcialmente (até que o restante dele chegue)
+ * e uma fila de frames a serem enviados ao cliente.
+ * Os frames podem ser enfileirados por qualquer thread (como os reatores de outros clientes
+ * que enviaram mensagens para a sala), mas são escritos no canal apenas pelo reator da conexão.
+ * Se o canal não aceitar todos os dados de uma vez (pois o buffer de envio do SO está cheio),
+ * o reator passa a monitorar o evento {@link SelectionKey#OP_WRITE} para continuar o envio
+ * quando o canal estiver pronto, sem ficar bloqueado.</p>
+ *
+ * <p>Para que um cliente lento (que não consome as mensagens na velocidade em que elas chegam)
+ * não faça a fila crescer indefinidamente, a conexão é encerrada quando o total de bytes
+ * pendentes de envio ultrapassa {@link #MAX_OUTBOUND_BYTES}.</p>
+ *
+ * <p>Se o servidor usar o protocolo WebSocket, a conexão também responde à requisição de upgrade
+ * e aos frames de controle (ping e close) recebidos do cliente (veja {@link #nextMessage(ByteBuffer)}).</p>
+ *
+ * <p>Para que a memória usada por conexão seja pequena e previsível mesmo com muitos clientes,
+ * os buffers de leitura e de escrita são obtidos do {@link ByteBufferPool} apenas enquanto
+ * há um frame incompleto ou dados pendentes de envio, sendo devolvidos em seguida.
+ * Assim, uma conexão ociosa mantém apenas este objeto e sua fila vazia.
+ * Os indicadores de estado usam campos voláteis atualizados atomicamente
+ * (por meio de {@link AtomicIntegerFieldUpdater} e {@link AtomicLongFieldUpdater}),
+ * evitando um objeto atômico adicional para cada um.
+ * Ao ser encerrada, a conexão é devolvida ao seu reator, que a reutiliza para um novo cliente
+ * (veja {@link #open(SelectionKey)} e {@link #recycle()}).</p>
+ *
+ * <p>Como outras threads podem ter obtido a conexão da sala antes de ela ser encerrada,
+ * cada reutilização incrementa a geração da conexão ({@link #getGeneration()}).
+ * Um envio para uma geração anterior é rejeitado, assim como um envio para uma conexão encerrada.
+ * O reator só recicla a conexão quando não há nenhum envio em andamento (veja {@link #hasActiveSenders()}),
+ * de modo que um envio iniciado antes do encerramento não alcance o novo cliente.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+class ChatConnection implements ChatSubscriber, Closeable {
+    /**
+     * Total máximo de bytes que podem ficar pendentes de envio para um cliente.
+     */
+    private static final long MAX_OUTBOUND_BYTES = Config.getLong("chat.outbound.maxKB", 256) * 1024;
+
+    private static final AtomicLongFieldUpdater<ChatConnection> OUTBOUND_BYTES =
+            AtomicLongFieldUpdater.newUpdater(ChatConnection.class, "outboundBytes");
+    private static final AtomicIntegerFieldUpdater<ChatConnection> FLUSH_SCHEDULED =
+            AtomicIntegerFieldUpdater.newUpdater(ChatConnection.class, "flushScheduled");
+    private static final AtomicIntegerFieldUpdater<ChatConnection> CLOSED =
+            AtomicIntegerFieldUpdater.newUpdater(ChatConnection.class, "closed");
+    private static final AtomicIntegerFieldUpdater<ChatConnection> ACTIVE_SENDERS =
+            AtomicIntegerFieldUpdater.newUpdater(ChatConnection.class, "activeSenders");
+
+    private final ChatReactor reactor;
+    private final ServerMetrics metrics;
+    private final ByteBufferPool bufferPool;
+    private final ChatRoom room;
+    private final Queue<ByteBuffer> outboundQueue;
+    private SelectionKey key;
+    private SocketChannel channel;
+
+    private volatile long outboundBytes;
+    private volatile int flushScheduled;
+
+    /**
+     * Indica se a conexão foi encerrada (1) ou não (0).
+     * Uma conexão recém criada só fica aberta após ser associada a um canal por meio de {@link #open(SelectionKey)}.
+     */
+    private volatile int closed = 1;
+
+    /**
+     * Número de vezes que a conexão foi associada a um cliente.
+     * Alterado apenas pelo reator, em {@link #open(SelectionKey)}.
+     */
+    private volatile int generation;
+
+    /**
+     * Número de threads executando {@link #send(ByteBuffer, int)} neste momento.
+     */
+    private volatile int activeSenders;
+
+    /**
+     * Buffer (pronto para escrita) obtido do pool para ler os dados recebidos,
+     * mantido entre as leituras apenas enquanto contém um frame recebido parcialmente;
+     * ou null se não há frame incompleto.
+     */
+    private ByteBuffer readBuffer;
+
+    /**
+     * Buffer (pronto para escrita) obtido do pool contendo os frames a serem escritos no canal,
+     * mantido apenas enquanto há dados que o canal ainda não aceitou; ou null se não há dados pendentes.
+     */
+    private ByteBuffer writeBuffer;
+
+    /**
+     * Instante (obtido por {@link System#nanoTime()}) em que a conexão recebeu ou enviou dados pela última vez.
+     * É usado pelo {@link IdleTimeoutWheel} para encerrar conexões ociosas.
+     */
+    private volatile long lastActivityNanos;
+
+    /**
+     * Indica se a conexão está em alguma posição do {@link IdleTimeoutWheel} do reator.
+     * Como a roda só remove as conexões encerradas quando a posição delas é processada,
+     * uma conexão reutilizada pode ainda estar na roda e não deve ser incluída novamente.
+     */
+    private boolean inIdleWheel;
+
+    /**
+     * Indica se a conexão ainda aguarda a requisição HTTP de upgrade para WebSocket.
+     */
+    private boolean handshakePending;
+
+    /**
+     * Instancia uma conexão ainda não associada a um canal.
+     * @param reactor reator que vai processar os eventos da conexão
+     * @param room sala de chat da qual o cliente vai participar
+     */
+    ChatConnection(final ChatReactor reactor, final ChatRoom room) {
+        this.reactor = reactor;
+        this.metrics = reactor.getMetrics();
+        this.bufferPool = reactor.getBufferPool();
+        this.room = room;
+        this.outboundQueue = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Associa a conexão ao canal de um cliente recém conectado, reiniciando seu estado.
+     * Deve ser chamado pela thread do reator, para uma conexão nova ou já reciclada.
+     * @param key chave que representa o canal do cliente
+     */
+    void open(final SelectionKey key) {
+        this.key = key;
+        this.channel = (SocketChannel) key.channel();
+        this.generation++;
+        //Descarta frames enfileirados por envios que concorreram com o encerramento do cliente anterior.
+        this.outboundQueue.clear();
+        this.outboundBytes = 0;
+        this.flushScheduled = 0;
+        this.lastActivityNanos = System.nanoTime();
+        this.handshakePending = NonBlockingChatServer.WEBSOCKET;
+        this.closed = 0;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Enfileira um frame para ser enviado ao cliente atual da conexão.
+     * Usado pelo reator para responder ao próprio cliente.
+     * @param frame {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public boolean send(final ByteBuffer frame) {
+        return send(frame, generation);
+    }
+
+    /**
+     * Enfileira um frame para ser enviado ao cliente pelo reator da conexão.
+     * Pode ser chamado por qualquer thread.
+     * @param frame {@inheritDoc}
+     * @param generation {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public boolean send(final ByteBuffer frame, final int generation) {
+        //Incrementado antes de verificar o estado, para que o reator não recicle a conexão durante o envio.
+        ACTIVE_SENDERS.incrementAndGet(this);
+        try {
+            return enqueue(frame, generation);
+        } finally {
+            ACTIVE_SENDERS.decrementAndGet(this);
+        }
+    }
+
+    private boolean enqueue(final ByteBuffer frame, final int generation) {
+        if(isClosed() || generation != this.generation){
+            return false;
+        }
+
+        final long pendingBytes = OUTBOUND_BYTES.addAndGet(this, frame.remaining());
+        if(pendingBytes > MAX_OUTBOUND_BYTES){
+            ChatServerAbstract.LOGGER.warning("Cliente lento desconectado: " + pendingBytes + " bytes pendentes de envio");
+            close();
+            return false;
+        }
+
+        //O frame é compartilhado entre os destinatários e não tem sua posição alterada durante o envio.
+        outboundQueue.add(frame);
+        if(FLUSH_SCHEDULED.compareAndSet(this, 0, 1)) {
+            reactor.scheduleFlush(this);
+        }
+
+        return true;
+    }
+
+    /**
+     * Envia ao cliente o máximo possível de frames enfileirados, sem bloquear.
+     * Os frames são copiados para um buffer direto obtido do pool, que é enviado
+     * com uma única chamada ao sistema operacional. Tal cópia é a mesma que a JVM faria
+     * internamente para escrever um buffer do heap, mas evita criar uma cópia (duplicate)
+     * de cada frame compartilhado para cada destinatário.
+     *
+     * <p>Se o canal não aceitar todos os dados, passa a monitorar o evento {@link SelectionKey#OP_WRITE}
+     * para continuar o envio quando o canal estiver pronto para receber mais dados.</p>
+     */
+    synchronized void flush() throws IOException {
+        flushScheduled = 0;
+        if(isClosed()){
+            return;
+        }
+
+        while (true) {
+            if(writeBuffer == null) {
+                if(outboundQueue.isEmpty()) {
+                    setWriteInterest(false);
+                    return;
+                }
+                writeBuffer = bufferPool.acquire();
+            }
+
+            fillWriteBuffer();
+            //O cast para Buffer evita erro ao executar em Java 8 um código compilado em versões posteriores.
+            ((Buffer)writeBuffer).flip();
+            final int bytesWritten = channel.write(writeBuffer);
+            writeBuffer.compact();
+            OUTBOUND_BYTES.addAndGet(this, -bytesWritten);
+            metrics.bytesWritten(bytesWritten);
+            if(bytesWritten > 0) {
+                touch();
+            }
+
+            if(writeBuffer.position() > 0) {
+                //O buffer de envio do SO está cheio: aguarda o canal estar pronto para escrita.
+                setWriteInterest(true);
+                return;
+            }
+
+            if(outboundQueue.isEmpty()) {
+                bufferPool.release(writeBuffer);
+                writeBuffer = null;
+            }
+        }
+    }
+
+    /**
+     * Copia para o buffer de escrita os frames enfileirados que couberem inteiros nele.
+     * Os frames gerados pelo {@link FrameCodec} ficam no heap, sendo copiados diretamente do seu vetor
+     * para não alterar a posição de um frame compartilhado com outros destinatários.
+     */
+    private void fillWriteBuffer() throws IOException {
+        int frames = 0;
+        ByteBuffer frame;
+        while((frame = outboundQueue.peek()) != null && frame.remaining() <= writeBuffer.remaining()) {
+            if(frame.hasArray()) {
+                writeBuffer.put(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            } else writeBuffer.put(frame.duplicate());
+            outboundQueue.poll();
+            frames++;
+        }
+
+        if(frames == 0 && frame != null && writeBuffer.position() == 0) {
+            throw new IOException("Frame de " + frame.remaining() + " bytes maior que o buffer de envio");
+        }
+
+        metrics.messagesSent(frames);
+    }
+
+    private void setWriteInterest(final boolean enabled) {
+        if(!key.isValid()){
+            return;
+        }
+
+        final int ops = key.interestOps();
+        final int newOps = enabled ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE;
+        if(newOps != ops) {
+            key.interestOps(newOps);
+        }
+    }
+
+    /**
+     * Obtém o buffer onde os dados recebidos devem ser lidos.
+     * Se um frame foi recebido parcialmente numa leitura anterior, é retornado o buffer que o contém,
+     * para que o restante dele seja lido. Caso contrário, um buffer é obtido do pool.
+     * Deve ser chamado apenas pela thread que processa os eventos da conexão.
+     *
+     * @return o buffer pronto para escrita
+     * @see #compactReadBuffer()
+     */
+    ByteBuffer getReadBuffer() {
+        if(readBuffer == null) {
+            readBuffer = bufferPool.acquire();
+        }
+
+        return readBuffer;
+    }
+
+    /**
+     * Finaliza o processamento do buffer de leitura, depois que os frames completos foram obtidos dele.
+     * Os bytes não processados, que representam o início de um frame ainda não totalmente recebido,
+     * são movidos para o início do buffer, que é mantido para a próxima leitura.
+     * Se não há tais bytes, o buffer é devolvido ao pool.
+     */
+    void compactReadBuffer() {
+        if(readBuffer.hasRemaining()) {
+            readBuffer.compact();
+            return;
+        }
+
+        bufferPool.release(readBuffer);
+        readBuffer = null;
+    }
+
+    /**
+     * Obtém o conteúdo da próxima mensagem completa disponível no buffer de leitura,
+     * de acordo com o protocolo usado pelo servidor.
+     * Com WebSocket, a requisição de upgrade é respondida e os frames de controle
+     * são tratados aqui mesmo, sendo retornado apenas o conteúdo dos frames de dados.
+     *
+     * @param buffer buffer de leitura, pronto para ser lido
+     * @return uma fatia (slice) do buffer contendo apenas o conteúdo da mensagem,
+     *         ou null se o buffer não possui uma mensagem completa ou a conexão foi encerrada pelo cliente
+     * @throws ProtocolException se a mensagem ou a requisição de upgrade for inválida
+     * @throws IOException se não for possível responder ao encerramento da conexão
+     * @see FrameCodec#nextFrame(ByteBuffer)
+     * @see WebSocketCodec#nextFrame(ByteBuffer)
+     */
+    ByteBuffer nextMessage(final ByteBuffer buffer) throws IOException {
+        if(!NonBlockingChatServer.WEBSOCKET) {
+            return FrameCodec.nextFrame(buffer);
+        }
+
+        if(handshakePending) {
+            final ByteBuffer response = WebSocketCodec.handshake(buffer);
+            if(response == null){
+                return null;
+            }
+
+            handshakePending = false;
+            send(response);
+        }
+
+        while(true) {
+            final int framePosition = buffer.position();
+            final ByteBuffer payload = WebSocketCodec.nextFrame(buffer);
+            if(payload == null){
+                return null;
+            }
+
+            switch (WebSocketCodec.getOpcode(buffer, framePosition)) {
+                case WebSocketCodec.OP_TEXT:
+                case WebSocketCodec.OP_BINARY:
+                    return payload;
+                case WebSocketCodec.OP_PING:
+                    send(WebSocketCodec.encode(WebSocketCodec.OP_PONG, payload));
+                    break;
+                case WebSocketCodec.OP_CLOSE:
+                    //Devolve o frame de encerramento (com o mesmo código de status) antes de fechar a conexão.
+                    send(WebSocketCodec.encode(WebSocketCodec.OP_CLOSE, payload));
+                    flush();
+                    close();
+                    return null;
+                default:
+                    //Frames pong (respostas a pings) são ignorados.
+            }
+        }
+    }
+
+    /**
+     * Registra que a conexão teve atividade (recebeu ou enviou dados) no instante atual.
+     */
+    void touch() {
+        lastActivityNanos = System.nanoTime();
+    }
+
+    long getLastActivityNanos() {
+        return lastActivityNanos;
+    }
+
+    boolean isClosed() {
+        return closed != 0;
+    }
+
+    /**
+     * Indica se há threads enviando frames para a conexão,
+     * caso em que ela ainda não pode ser reciclada.
+     */
+    boolean hasActiveSenders() {
+        return activeSenders != 0;
+    }
+
+    boolean isInIdleWheel() {
+        return inIdleWheel;
+    }
+
+    void setInIdleWheel(final boolean inIdleWheel) {
+        this.inIdleWheel = inIdleWheel;
+    }
+
+    /**
+     * Encerra a conexão, removendo o cliente da sala.
+     * Pode ser chamado por qualquer thread.
+     * Os buffers da conexão só são devolvidos ao pool quando o reator a recicla,
+     * pois ela ainda pode estar sendo processada pela thread do reator.
+     */
+    @Override
+    public void close() {
+        if(!CLOSED.compareAndSet(this, 0, 1)){
+            return;
+        }
+
+        metrics.connectionClosed();
+        room.leave(this);
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+        }
+        outboundQueue.clear();
+        reactor.recycle(this);
+    }
+
+    /**
+     * Libera os recursos de uma conexão encerrada, para que ela possa ser reutilizada.
+     * Deve ser chamado apenas pelo reator, quando a conexão não está mais sendo processada.
+     */
+    synchronized void recycle() {
+        bufferPool.release(readBuffer);
+        bufferPool.release(writeBuffer);
+        readBuffer = null;
+        writeBuffer = null;
+        key = null;
+        channel = null;
+        outboundQueue.clear();
+    }
+}
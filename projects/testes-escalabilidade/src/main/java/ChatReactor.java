@@ -0,0 +1,437 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Um reator (event loop) responsável por processar os eventos de leitura e escrita
+ * de um subconjunto dos clientes conectados a um {@link NonBlockingChatServer}.
+ *
+ * <p>No modo multi-reator, cada reator possui seu próprio {@link Selector} e sua própria thread.
+ * A thread aceitadora do servidor (acceptor) apenas aceita as conexões e as repassa
+ * aos reatores em round-robin, por meio do método {@link #register(SocketChannel)}.
+ * Como cada conjunto de chaves (SelectionKeys) só é acessado pela thread do seu reator,
+ * não há disputa entre threads por tais chaves, permitindo que o número de conexões e mensagens
+ * processadas cresça com o número de núcleos da CPU.</p>
+ *
+ * <p>Um {@link Selector} não deve ter canais registrados por outras threads enquanto
+ * está bloqueado em {@link Selector#select()}. Por isso, os canais recebidos
+ * são colocados em uma fila e registrados pela própria thread do reator,
+ * que é acordada por meio de {@link Selector#wakeup()}.
+ * O mesmo ocorre com as conexões que possuem mensagens a serem enviadas:
+ * elas são enfileiradas para que a thread do reator envie tais mensagens.</p>
+ *
+ * <p>As conexões encerradas também são enfileiradas, para que o reator as recicle
+ * ao final de cada iteração do loop, quando não estão mais sendo processadas
+ * e nenhuma outra thread está enviando frames para elas.
+ * Elas são mantidas em uma lista de conexões livres (até {@link #MAX_FREE_CONNECTIONS})
+ * e reutilizadas para os próximos clientes, evitando criar novos objetos a cada conexão.
+ * Uma conexão reciclada só é reutilizada a partir da iteração seguinte,
+ * depois que os envios agendados para ela antes do encerramento foram descartados.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+class ChatReactor implements Runnable, Closeable {
+    /**
+     * Tempo máximo (em segundos) que uma conexão pode ficar sem receber nem enviar dados.
+     * Se for 0, as conexões ociosas não são encerradas.
+     */
+    private static final long IDLE_TIMEOUT_SECS = Config.getLong("chat.idle.timeoutSecs", 300);
+
+    /**
+     * Número máximo de conexões encerradas mantidas por cada reator para serem reutilizadas.
+     */
+    private static final int MAX_FREE_CONNECTIONS = Config.getInt("chat.connection.poolSize", 1024);
+
+    private final NonBlockingChatServer server;
+    private final ServerMetrics metrics;
+    private final Selector selector;
+    private final Queue<SocketChannel> pendingChannels;
+    private final Queue<ChatConnection> pendingFlushes;
+
+    /**
+     * Conexões encerradas (por qualquer thread) que ainda não foram recicladas pelo reator.
+     */
+    private final Queue<ChatConnection> closedConnections;
+
+    /**
+     * Conexões recicladas que podem ser reutilizadas para novos clientes.
+     */
+    private final ArrayDeque<ChatConnection> freeConnections;
+
+    /**
+     * Conexões recicladas na última iteração do loop, que passam a ser livres na iteração seguinte.
+     */
+    private final ArrayDeque<ChatConnection> recycledConnections;
+
+    /**
+     * Indica se o {@link Selector} já foi acordado e ainda não voltou a aguardar eventos,
+     * evitando chamadas desnecessárias a {@link Selector#wakeup()}.
+     */
+    private final AtomicBoolean wakeupRequested;
+
+    /**
+     * Thread que executa o loop de eventos do reator,
+     * ou null se os eventos são processados pela thread do próprio servidor
+     * (modo de reator único, onde o {@link Selector} é compartilhado com o servidor).
+     */
+    private final Thread thread;
+    private volatile boolean running;
+
+    /**
+     * Roda de tempo que encerra as conexões ociosas do reator,
+     * ou null se tais conexões não devem ser encerradas.
+     */
+    private final IdleTimeoutWheel idleWheel;
+
+    /**
+     * Instancia um reator que possui seu próprio {@link Selector} e sua própria thread.
+     * @param server servidor ao qual o reator pertence
+     * @param id número do reator, usado apenas para identificar a thread
+     */
+    ChatReactor(final NonBlockingChatServer server, final int id) throws IOException {
+        this.server = server;
+        this.metrics = server.getMetrics();
+        this.selector = Selector.open();
+        this.pendingChannels = new ConcurrentLinkedQueue<>();
+        this.pendingFlushes = new ConcurrentLinkedQueue<>();
+        this.closedConnections = new ConcurrentLinkedQueue<>();
+        this.freeConnections = new ArrayDeque<>();
+        this.recycledConnections = new ArrayDeque<>();
+        this.wakeupRequested = new AtomicBoolean();
+        this.thread = new Thread(this, "chat-reactor-" + id);
+        this.idleWheel = newIdleWheel();
+    }
+
+    /**
+     * Instancia um reator que compartilha o {@link Selector} do servidor,
+     * tendo seus eventos processados pela thread do próprio servidor.
+     * @param server servidor ao qual o reator pertence
+     * @param selector {@link Selector} do servidor
+     */
+    ChatReactor(final NonBlockingChatServer server, final Selector selector) {
+        this.server = server;
+        this.metrics = server.getMetrics();
+        this.selector = selector;
+        this.pendingChannels = new ConcurrentLinkedQueue<>();
+        this.pendingFlushes = new ConcurrentLinkedQueue<>();
+        this.closedConnections = new ConcurrentLinkedQueue<>();
+        this.freeConnections = new ArrayDeque<>();
+        this.recycledConnections = new ArrayDeque<>();
+        this.wakeupRequested = new AtomicBoolean();
+        this.thread = null;
+        this.idleWheel = newIdleWheel();
+    }
+
+    private IdleTimeoutWheel newIdleWheel() {
+        return IDLE_TIMEOUT_SECS > 0 ? new IdleTimeoutWheel(TimeUnit.SECONDS.toNanos(IDLE_TIMEOUT_SECS), metrics) : null;
+    }
+
+    void start() {
+        if(thread == null || running){
+            return;
+        }
+
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Repassa um canal de um cliente recém conectado para ser monitorado pelo reator.
+     * @param clientChannel canal do cliente, já configurado como não bloqueante
+     */
+    void register(final SocketChannel clientChannel) throws IOException {
+        if(thread == null){
+            registerChannel(clientChannel);
+            return;
+        }
+
+        pendingChannels.add(clientChannel);
+        wakeup();
+    }
+
+    /**
+     * Agenda o envio das mensagens enfileiradas para uma conexão.
+     * Se chamado por outra thread, a conexão é enfileirada e o reator é acordado para realizar o envio.
+     * Se chamado pela própria thread do reator, o envio é feito ao final do processamento
+     * dos eventos atuais, permitindo que várias mensagens sejam enviadas de uma só vez.
+     * @param connection conexão com mensagens a serem enviadas
+     */
+    void scheduleFlush(final ChatConnection connection) {
+        if(thread == null){
+            flush(connection);
+            return;
+        }
+
+        pendingFlushes.add(connection);
+        if(Thread.currentThread() != thread) {
+            wakeup();
+        }
+    }
+
+    private void wakeup() {
+        if(wakeupRequested.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        while(running) {
+            try {
+                selector.select(getSelectTimeoutMillis());
+                final long startNanos = System.nanoTime();
+                wakeupRequested.set(false);
+                registerPendingChannels();
+                final int events = selector.selectedKeys().size();
+                processEvents(selector.selectedKeys());
+                flushPendingConnections();
+                expireIdleConnections(startNanos);
+                recycleClosedConnections();
+                metrics.selectLoop(events, System.nanoTime() - startNanos);
+            } catch (ClosedSelectorException e){
+                return;
+            } catch (IOException e){
+                ChatServerAbstract.LOGGER.severe("Erro ao selecionar eventos: " + e.getMessage());
+            }
+        }
+    }
+
+    private void registerPendingChannels() {
+        SocketChannel clientChannel;
+        while((clientChannel = pendingChannels.poll()) != null) {
+            try {
+                registerChannel(clientChannel);
+            } catch (IOException e) {
+                ChatServerAbstract.LOGGER.severe("Erro ao registrar cliente no reator: " + e.getMessage());
+                closeChannel(clientChannel);
+            }
+        }
+    }
+
+    /**
+     * Registra o canal de um cliente no {@link Selector} do reator,
+     * anexando à chave gerada um objeto que representa a conexão e incluindo o cliente na sala de chat.
+     * Tal objeto é obtido da lista de conexões livres, sendo criado apenas se ela estiver vazia.
+     * É sincronizado pois, no modo de reator único, os eventos de novas conexões de diferentes portas
+     * podem ser processados em paralelo.
+     * @param clientChannel canal do cliente a ser registrado
+     */
+    private synchronized void registerChannel(final SocketChannel clientChannel) throws IOException {
+        final SelectionKey key = clientChannel.register(selector, SelectionKey.OP_READ);
+        ChatConnection connection = freeConnections.poll();
+        if(connection == null) {
+            connection = new ChatConnection(this, server.getRoom());
+        }
+
+        connection.open(key);
+        key.attach(connection);
+        server.getRoom().join(connection);
+        if(idleWheel != null) {
+            idleWheel.add(connection);
+        }
+    }
+
+    /**
+     * Agenda uma conexão encerrada para ser reciclada pelo reator.
+     * Pode ser chamado por qualquer thread.
+     * @param connection conexão encerrada
+     */
+    void recycle(final ChatConnection connection) {
+        closedConnections.add(connection);
+    }
+
+    /**
+     * Libera os recursos das conexões encerradas desde a última chamada,
+     * incluindo-as na lista de conexões livres para serem reutilizadas a partir da próxima chamada.
+     * Conexões para as quais outras threads ainda estão enviando frames
+     * são mantidas na fila para serem recicladas na próxima chamada.
+     * Deve ser chamado pela thread que executa o loop de eventos do reator,
+     * depois que os eventos selecionados foram processados.
+     */
+    synchronized void recycleClosedConnections() {
+        ChatConnection connection;
+        while((connection = recycledConnections.poll()) != null) {
+            if(freeConnections.size() < MAX_FREE_CONNECTIONS) {
+                freeConnections.push(connection);
+            }
+        }
+
+        final int closedCount = closedConnections.size();
+        for (int i = 0; i < closedCount && (connection = closedConnections.poll()) != null; i++) {
+            if(connection.hasActiveSenders()) {
+                closedConnections.add(connection);
+                continue;
+            }
+
+            connection.recycle();
+            recycledConnections.add(connection);
+        }
+    }
+
+    /**
+     * Obtém o tempo máximo que o {@link Selector} pode ficar bloqueado aguardando eventos,
+     * para que as conexões ociosas sejam verificadas periodicamente.
+     * @return o tempo em milissegundos ou 0 para aguardar indefinidamente
+     */
+    long getSelectTimeoutMillis() {
+        return idleWheel == null ? 0 : idleWheel.getTickMillis();
+    }
+
+    /**
+     * Encerra as conexões do reator que ficaram ociosas pelo tempo limite.
+     * Deve ser chamado pela thread que executa o loop de eventos do reator.
+     * @param nowNanos instante atual, obtido por {@link System#nanoTime()}
+     */
+    void expireIdleConnections(final long nowNanos) {
+        if(idleWheel != null) {
+            idleWheel.expire(nowNanos);
+        }
+    }
+
+    private void flushPendingConnections() {
+        ChatConnection connection;
+        while((connection = pendingFlushes.poll()) != null) {
+            flush(connection);
+        }
+    }
+
+    private void flush(final ChatConnection connection) {
+        try {
+            connection.flush();
+        } catch (IOException e) {
+            ChatServerAbstract.LOGGER.warning("Não foi possível enviar dados ao cliente: " + e.getMessage());
+            connection.close();
+        }
+    }
+
+    private void processEvents(final Set<SelectionKey> selectionKeys) {
+        for (final SelectionKey key : selectionKeys) {
+            processEvent(key);
+        }
+        selectionKeys.clear();
+    }
+
+    /**
+     * Processa um evento de um canal de cliente.
+     * Pode ser chamado pela thread do reator ou, no modo de reator único,
+     * pelas threads usadas pelo servidor para processar eventos em paralelo.
+     * @param key chave que representa o canal do cliente e os eventos ocorridos
+     */
+    void processEvent(final SelectionKey key){
+        if (!key.isValid()) {
+            return;
+        }
+
+        final ChatConnection connection = (ChatConnection) key.attachment();
+        try{
+            if(key.isWritable()){
+                connection.flush();
+            }
+
+            if(key.isValid() && key.isReadable()){
+                processRead(key, connection);
+            }
+        }catch(IOException e){
+            connection.close();
+            ChatServerAbstract.LOGGER.severe("Erro ao processar evento: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Lê os dados recebidos de um cliente e processa cada mensagem (frame) completa recebida.
+     * Os dados são lidos no buffer de leitura da conexão, que é obtido de um pool
+     * e mantido apenas enquanto um frame recebido parcialmente aguarda o restante dos seus bytes.
+     * Assim, nenhum objeto é criado a cada leitura, nem mesmo para guardar um frame incompleto.
+     * Se a conexão for encerrada, o buffer é devolvido ao pool quando o reator a reciclar.
+     *
+     * @param key chave que representa o canal do cliente
+     * @param connection conexão do cliente
+     */
+    private void processRead(final SelectionKey key, final ChatConnection connection) throws IOException {
+        final ByteBuffer buffer = connection.getReadBuffer();
+        final int bytesRead;
+        try {
+            bytesRead = connection.getChannel().read(buffer);
+        } catch (IOException e) {
+            throw new IOException("Não foi possível ler dados recebidos: " + e.getMessage(), e);
+        }
+
+        if(bytesRead == -1){
+            connection.close();
+            return;
+        }
+
+        if(bytesRead > 0) {
+            metrics.bytesRead(bytesRead);
+            connection.touch();
+        }
+
+        try {
+            //O cast para Buffer evita erro ao executar em Java 8 um código compilado em versões posteriores.
+            ((Buffer)buffer).flip();
+            ByteBuffer msg;
+            while(!connection.isClosed() && (msg = connection.nextMessage(buffer)) != null) {
+                processMessage(connection, msg);
+            }
+            connection.compactReadBuffer();
+        } catch (ProtocolException e) {
+            throw new IOException("Mensagem inválida recebida: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Processa uma mensagem recebida de um cliente, repassando-a para os demais participantes da sala
+     * (ou devolvendo-a ao cliente, se o servidor estiver em modo eco).
+     * A mensagem é uma fatia (slice) do buffer usado para a leitura,
+     * não sendo feita nenhuma cópia dos dados até que ela seja codificada para envio.
+     * Como tal buffer é devolvido ao pool após o processamento dos frames,
+     * a mensagem não deve ser armazenada para uso posterior.
+     *
+     * @param connection conexão do cliente que enviou a mensagem
+     * @param msg buffer contendo apenas os bytes da mensagem
+     */
+    private void processMessage(final ChatConnection connection, final ByteBuffer msg) {
+        metrics.messageReceived();
+        if(ChatServerAbstract.isExitCommand(msg)){
+            connection.close();
+            return;
+        }
+
+        server.deliver(connection, msg);
+    }
+
+    ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    ByteBufferPool getBufferPool() {
+        return server.getBufferPool();
+    }
+
+    private void closeChannel(final Closeable channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if(thread != null) {
+            selector.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Uma sala de chat, que distribui (broadcast) cada mensagem recebida de um participante
+ * para todos os demais participantes.
+ *
+ * <p>Cada mensagem é codificada uma única vez e o mesmo frame é repassado
+ * a todos os participantes, evitando que o conteúdo seja copiado para cada um deles.
+ * Os participantes podem entrar e sair da sala a partir de diferentes threads.</p>
+ *
+ * <p>A sala guarda a geração de cada participante no momento em que ele entrou
+ * (veja {@link ChatSubscriber#getGeneration()}), que é repassada a cada envio.
+ * Assim, se um participante sair e seu objeto for reutilizado para um novo cliente
+ * enquanto uma mensagem ainda está sendo distribuída, tal mensagem é rejeitada pelo novo cliente.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+class ChatRoom {
+    private final String name;
+    /**
+     * Participantes da sala, associados às suas gerações no momento em que entraram.
+     */
+    private final ConcurrentMap<ChatSubscriber, Integer> subscribers;
+    private final LongAdder deliveries;
+    private final LongAdder failedDeliveries;
+
+    ChatRoom(final String name) {
+        this.name = name;
+        this.subscribers = new ConcurrentHashMap<>();
+        this.deliveries = new LongAdder();
+        this.failedDeliveries = new LongAdder();
+    }
+
+    void join(final ChatSubscriber subscriber) {
+        subscribers.put(subscriber, subscriber.getGeneration());
+    }
+
+    void leave(final ChatSubscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    /**
+     * Envia uma mensagem para todos os participantes da sala, exceto o remetente.
+     * @param sender participante que enviou a mensagem
+     * @param frame mensagem já codificada pelo servidor, que não tem sua posição alterada
+     */
+    void broadcast(final ChatSubscriber sender, final ByteBuffer frame) {
+        for (final Map.Entry<ChatSubscriber, Integer> entry : subscribers.entrySet()) {
+            final ChatSubscriber subscriber = entry.getKey();
+            if(subscriber == sender){
+                continue;
+            }
+
+            if(subscriber.send(frame, entry.getValue())){
+                deliveries.increment();
+            } else failedDeliveries.increment();
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int size() {
+        return subscribers.size();
+    }
+
+    long getDeliveries() {
+        return deliveries.sum();
+    }
+
+    long getFailedDeliveries() {
+        return failedDeliveries.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Sala %s: %d participantes | mensagens entregues: %d | falhas de entrega: %d",
+                name, size(), getDeliveries(), getFailedDeliveries());
+    }
+}
@@ -1,13 +1,62 @@
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.DoubleStream;
-import java.util.stream.IntStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /**
+ * Classe base para as aplicações que testam a escalabilidade dos servidores de chat.
+ *
+ * <p>Os tempos de conexão e resposta são medidos com {@link System#nanoTime()}
+ * e registrados em histogramas ({@link LatencyHistogram}), que permitem obter os percentis
+ * das latências usando uma quantidade fixa de memória, independente do número de clientes.
+ * A propriedade {@code chat.client.perThreadHistograms} define se cada thread
+ * registra as latências no seu próprio histograma (padrão) ou se todas usam um histograma compartilhado.</p>
+ *
+ * <p>Após conectar os clientes, são enviadas mensagens de teste por clientes aleatórios,
+ * numa taxa constante ({@code chat.msg.rate} mensagens por segundo) durante um determinado tempo
+ * ({@code chat.msg.duration} segundos). O tamanho das mensagens segue a distribuição definida
+ * por {@code chat.msg.size} (veja {@link MessageSizeDistribution}).
+ * Cada mensagem contém um número de sequência e o instante em que foi enviada.
+ * O servidor deve estar em modo eco ({@code -Dchat.echo=true}), devolvendo as mensagens
+ * ao cliente que as enviou, permitindo medir o tempo real de ida e volta (round-trip).
+ * Uma resposta só é considerada se o número de sequência for de uma mensagem enviada
+ * pelo próprio cliente e ainda aguardando resposta; as demais (como respostas que chegaram
+ * após o tempo limite ou mensagens de outros clientes) são descartadas.
+ * Se nenhuma resposta corresponder às mensagens enviadas, o servidor não está em modo eco
+ * e os tempos de resposta e a vazão não são informados.</p>
+ *
+ * <p>Tanto as conexões quanto as mensagens são geradas em malha aberta (veja {@link OpenLoopScheduler}):
+ * são iniciadas em instantes calculados previamente, independente de quanto tempo o servidor
+ * leva para responder. As mensagens são enviadas numa taxa constante ({@code chat.msg.rate}),
+ * enquanto os instantes das conexões seguem o perfil de chegada definido por {@code chat.client.arrival}
+ * (veja {@link ArrivalProfile}). O número de conexões estabelecidas e de falhas a cada segundo
+ * é exibido ao final, permitindo identificar quando a fila de conexões pendentes do servidor transbordou.
+ * As latências são medidas a partir do instante em que cada conexão ou mensagem
+ * deveria ter sido iniciada, incluindo assim qualquer atraso causado pela lentidão do servidor.</p>
+ *
+ * <p>Além de exibidos no terminal, os resultados são gravados em arquivos JSON e CSV
+ * no diretório definido por {@code chat.report.dir} (veja {@link BenchmarkReport}),
+ * que podem ser comparados com os de outra execução por meio do {@link ReportComparator}.</p>
+ *
  * @author Manoel Campos da Silva Filho
  * @param <T> o type de objetos que representam conexões dos clientes
  */
@@ -15,57 +64,256 @@ abstract class ChatScalabilityAbstract<T extends Closeable> implements Closeable
 
     /**
      * O underline no valor funciona apenas como separador de milhares (por questões de clareza).
-     * Se os clientes forem executados na mesma máquina, só conseguiremos
-     * executar em torno de 6000 clientes, pois só temos por volta deste número
-     * de portas disponíveis.
+     * Se os clientes forem executados na mesma máquina, cada conexão usa uma porta efêmera
+     * do endereço IP de origem, que tem por volta de 28 mil portas disponíveis (no Linux).
+     * Para ultrapassar tal limite, os clientes podem usar diferentes endereços IP de origem
+     * ({@code chat.client.localAddresses}) e conectar em diferentes IPs e portas do servidor
+     * ({@code chat.ports}).
      */
-    protected static final int MAX_CLIENTS  = 60_000;
-    protected static final int MAX_MESSAGES = 10_000;
-    protected static final int MAX_MESSAGE_LENGTH = 1024;
+    protected static final int MAX_CLIENTS  = Config.getInt("chat.client.max", 60_000);
+    protected static final int MAX_MESSAGE_LENGTH = FrameCodec.MAX_PAYLOAD_LENGTH;
+
+    /**
+     * Tamanho do cabeçalho do conteúdo de uma mensagem de teste,
+     * que contém o número de sequência e o instante de envio da mensagem (obtido por {@link System#nanoTime()}).
+     */
+    protected static final int MESSAGE_HEADER_LENGTH = 2 * Long.BYTES;
+
+    /**
+     * Número de conexões de clientes iniciadas por segundo.
+     */
+    private static final int CONNECT_RATE = Config.getInt("chat.client.connectRate", 1000);
+
+    /**
+     * Perfil que define os instantes em que as conexões dos clientes são iniciadas.
+     * Por padrão, as conexões são iniciadas numa taxa constante de {@link #CONNECT_RATE} conexões por segundo.
+     */
+    private static final ArrivalProfile ARRIVAL_PROFILE = new ArrivalProfile(Config.getString("chat.client.arrival", "constant:" + CONNECT_RATE));
+
+    /**
+     * Tempo máximo (em milissegundos) que um cliente aguarda a conexão com o servidor.
+     */
+    protected static final int CONNECT_TIMEOUT_MS = Config.getInt("chat.client.connectTimeoutMs", 5000);
+
+    /**
+     * Número de threads usadas para conectar os clientes.
+     */
+    private static final int CONNECT_THREADS = Config.getInt("chat.client.connectThreads", 64);
+
+    /**
+     * Número de mensagens enviadas por segundo (somando todos os clientes).
+     */
+    private static final int MESSAGE_RATE = Config.getInt("chat.msg.rate", 1000);
+
+    /**
+     * Tempo (em segundos) durante o qual as mensagens são enviadas.
+     */
+    private static final int MESSAGE_DURATION_SECS = Config.getInt("chat.msg.duration", 30);
+
+    private static final MessageSizeDistribution MESSAGE_SIZES =
+            new MessageSizeDistribution(Config.getString("chat.msg.size", "uniform:16:1024"), MESSAGE_HEADER_LENGTH, MAX_MESSAGE_LENGTH);
+
+    /**
+     * Número de threads usadas para enviar as mensagens.
+     */
+    private static final int SENDER_THREADS = Config.getInt("chat.msg.threads", 32);
+
+    /**
+     * Tempo máximo (em milissegundos) para aguardar as respostas das mensagens enviadas,
+     * após terminar o envio. Nos clientes bloqueantes, também é o tempo máximo
+     * que cada cliente aguarda a resposta de uma mensagem.
+     */
+    protected static final long RESPONSE_TIMEOUT_MS = Config.getLong("chat.msg.timeoutMs", 5000);
+
+    /**
+     * Percentis das latências exibidos nos resultados.
+     */
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private static final boolean PER_THREAD_HISTOGRAMS = Config.getBoolean("chat.client.perThreadHistograms", true);
+
+    /**
+     * Diretório onde os arquivos de resultados são gravados.
+     * Se vazio, os resultados são apenas exibidos no terminal.
+     */
+    private static final String REPORT_DIR = Config.getStringOrEmpty("chat.report.dir", "results");
+
+    private static final DateTimeFormatter REPORT_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    /**
+     * Endereços IP locais (de origem) aos quais as conexões dos clientes são vinculadas,
+     * como "127.0.0.2-127.0.0.20,10.0.0.5". Se vazio, o SO escolhe o endereço de origem.
+     */
+    private static final InetAddress[] LOCAL_ADDRESSES = parseAddresses(Config.getString("chat.client.localAddresses", ""));
 
     private final Random random;
-    private final List<T> clients;
-    private List<Double> connectionTimes;
-    private List<Double> responseTimes;
+    private final ClientRegistry<T> clients;
+
+    /** Número de tentativas de conexão que falharam. */
+    private final LongAdder failedConnections;
+
+    /**
+     * Número de tentativas de conexão, conexões estabelecidas e falhas a cada segundo,
+     * ou null enquanto as conexões não começaram a ser abertas.
+     */
+    private TimeSeries connectionSeries;
+    private static final int ATTEMPTS_COLUMN = 0;
+    private static final int CONNECTIONS_COLUMN = 1;
+    private static final int FAILURES_COLUMN = 2;
+
+    /**
+     * Número de mensagens enviadas, respostas recebidas e falhas de envio a cada segundo,
+     * ou null enquanto as mensagens não começaram a ser enviadas.
+     */
+    private volatile TimeSeries messageSeries;
+    private static final int SENT_COLUMN = 0;
+    private static final int RECEIVED_COLUMN = 1;
+
+    private final BenchmarkReport report;
+    private final LatencyRecorder connectionTimes;
+    private final LatencyRecorder responseTimes;
+
+    /** Número de sequência da última mensagem enviada. */
+    private final AtomicLong messageSequence;
+    private final LongAdder sentMessages;
+    private final LongAdder receivedMessages;
+    private final LongAdder failedMessages;
 
     /**
-     * Indica os endereços IPs nos quais podemos conectar no servidor de chat.
+     * Mensagens enviadas que aguardam resposta, indexadas pelo número de sequência,
+     * indicando o cliente que as enviou.
+     */
+    private final ConcurrentMap<Long, T> pendingMessages;
+
+    /**
+     * Número de mensagens recebidas que não correspondem a uma mensagem aguardando resposta
+     * pelo cliente que as recebeu, sendo descartadas.
+     */
+    private final LongAdder unexpectedMessages;
+
+    /**
+     * Instantes (obtidos por {@link System#nanoTime()}) do envio da primeira mensagem
+     * e do recebimento da última resposta, usados para calcular a vazão.
+     */
+    private final AtomicLong firstSendNanos;
+    private final LongAccumulator lastReceiveNanos;
+
+    /**
+     * Bytes aleatórios usados para preencher o conteúdo das mensagens de teste.
+     */
+    private final byte[] messagePadding;
+
+    /**
+     * Indica os endereços (IP e porta) nos quais podemos conectar no servidor de chat.
      * Por questões de escalabilidade, o socket do servidor de chat
      * é iniciado sem informar o IP no qual ele vai aceitar conexão.
      * Assim, ele aceitará conexão em qualquer IP da máquina.
      * Com isto, conseguimos abrir mais conexões de clientes em tal servidor.
+     * Cada IP informado é combinado com cada uma das portas do servidor ({@code chat.ports}).
+     */
+    private final InetSocketAddress[] serverAddresses;
+
+    /**
+     * Índice da próxima conexão a ser aberta, usado para escolher o endereço do servidor
+     * e o endereço local de tal conexão. É disputado pelas threads que abrem as conexões.
      */
-    private final String serverIps[];
+    private final AtomicInteger nextConnectionIndex;
 
     /**
-     * Índice do endereço IP atual, obtido de {@link #serverIps}, em que o próximo cliente vai tentar conectar
-     * no servidor.
+     * Endereço do endpoint HTTP de métricas do servidor ({@link ServerMetrics}),
+     * cujos valores são incluídos nos resultados. Por padrão, usa o primeiro IP informado para o servidor.
+     * Se vazio, as métricas do servidor não são obtidas.
      */
-    private int currentServerIpIndex;
+    private final String serverMetricsUrl;
 
     public ChatScalabilityAbstract(final String serverIps[]) {
-        this.currentServerIpIndex = 0;
-        this.serverIps = serverIps;
+        this.nextConnectionIndex = new AtomicInteger();
+        this.serverAddresses = newServerAddresses(serverIps);
+        this.serverMetricsUrl = Config.getStringOrEmpty(
+                "chat.report.serverMetricsUrl",
+                ServerMetrics.HTTP_PORT > 0 ?
+                    "http://" + serverAddresses[0].getHostString() + ":" + ServerMetrics.HTTP_PORT + ServerMetrics.HTTP_PATH : "");
         random = new Random();
-        connectionTimes = Collections.emptyList();
-        responseTimes = Collections.emptyList();
-        clients = new ArrayList<>(MAX_CLIENTS);
+        connectionTimes = new LatencyRecorder(PER_THREAD_HISTOGRAMS);
+        responseTimes = new LatencyRecorder(PER_THREAD_HISTOGRAMS);
+        clients = new ClientRegistry<>();
+        failedConnections = new LongAdder();
+        report = new BenchmarkReport();
+        messageSequence = new AtomicLong();
+        sentMessages = new LongAdder();
+        receivedMessages = new LongAdder();
+        failedMessages = new LongAdder();
+        pendingMessages = new ConcurrentHashMap<>();
+        unexpectedMessages = new LongAdder();
+        firstSendNanos = new AtomicLong();
+        lastReceiveNanos = new LongAccumulator(Math::max, 0);
+        messagePadding = randomMsg(MAX_MESSAGE_LENGTH).getBytes(StandardCharsets.US_ASCII);
     }
 
     /**
-     * Gera uma String aleatória para ser enviada como mensagem.
-     * @return
+     * Gera uma String aleatória contendo apenas caracteres ASCII imprimíveis,
+     * para ser enviada como mensagem.
+     * @param len tamanho da String
+     * @return a String gerada
      */
-    protected String randomMsg(){
-        final int len = random.nextInt(MAX_MESSAGE_LENGTH)+1;
+    protected String randomMsg(final int len){
         final byte[] bytes = new byte[len];
         random.nextBytes(bytes);
         for (int i = 0; i < bytes.length; i++) {
-            if(bytes[i] < 32) {
-                bytes[i] += 32;
-            }
+            bytes[i] = (byte)(32 + (bytes[i] & 0x7F) % 95);
         }
-        return new String(bytes, StandardCharsets.UTF_8);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Cria uma mensagem de teste (já codificada como um frame), contendo
+     * o próximo número de sequência, o instante de envio e bytes de preenchimento
+     * até atingir o tamanho gerado pela distribuição {@code chat.msg.size}.
+     * @param sendTimeNanos instante planejado para o envio da mensagem, obtido a partir de {@link System#nanoTime()}
+     * @return o frame pronto para ser enviado
+     */
+    protected ByteBuffer newMessageFrame(final long sendTimeNanos) {
+        final int payloadLength = MESSAGE_SIZES.nextSize();
+        final ByteBuffer frame = ByteBuffer.allocate(FrameCodec.HEADER_LENGTH + payloadLength);
+        frame.putInt(payloadLength)
+             .putLong(messageSequence.incrementAndGet())
+             .putLong(sendTimeNanos)
+             .put(messagePadding, 0, payloadLength - MESSAGE_HEADER_LENGTH);
+        //O cast para Buffer evita erro ao executar em Java 8 um código compilado em versões posteriores.
+        ((Buffer)frame).flip();
+        return frame;
+    }
+
+    /**
+     * Deve ser chamado pelas subclasses sempre que uma mensagem for recebida do servidor.
+     * Se a mensagem for a resposta de uma mensagem enviada pelo cliente e ainda aguardando resposta,
+     * registra o tempo desde o envio até seu recebimento. Caso contrário, a mensagem é descartada.
+     * @param client cliente que recebeu a mensagem
+     * @param payload conteúdo da mensagem recebida (sem o cabeçalho do frame), que não tem sua posição alterada
+     * @return true se a mensagem é a resposta de uma mensagem enviada pelo cliente, false se foi descartada
+     */
+    protected boolean onMessageReceived(final T client, final ByteBuffer payload) {
+        if(payload.remaining() < MESSAGE_HEADER_LENGTH || !pendingMessages.remove(payload.getLong(payload.position()), client)){
+            unexpectedMessages.increment();
+            return false;
+        }
+
+        final long sendTimeNanos = payload.getLong(payload.position() + Long.BYTES);
+        final long nowNanos = System.nanoTime();
+        responseTimes.record(nowNanos - sendTimeNanos);
+        receivedMessages.increment();
+        lastReceiveNanos.accumulate(nowNanos);
+        incrementMessageSeries(RECEIVED_COLUMN, nowNanos);
+        return true;
+    }
+
+    /**
+     * Obtém o número de sequência de uma mensagem de teste.
+     * @param frame frame da mensagem, gerado por {@link #newMessageFrame(long)}, que não tem sua posição alterada
+     * @return o número de sequência
+     */
+    protected static long getSequence(final ByteBuffer frame) {
+        return frame.getLong(frame.position() + FrameCodec.HEADER_LENGTH);
     }
 
     /**
@@ -74,26 +322,20 @@ abstract class ChatScalabilityAbstract<T extends Closeable> implements Closeable
      * @throws ConnectException quando o servidor de chat não for localizado
      */
     protected void startClients() throws ConnectException {
-        if(serverIps.length == 1 && startClient() < 0){
+        if(serverAddresses.length == 1 && !startClient(System.nanoTime())){
             throw new ConnectException(
-                    "Não foi possível conectar ao servidor de chat em " + getCurrentServerIp() +":"+ ChatServerAbstract.PORT +
+                    "Não foi possível conectar ao servidor de chat em " + serverAddresses[0] +
                     ". Verifique se o servidor está em execução!");
         }
 
-        /*connectionTimes =
-            IntStream.iterate(0, i -> i+1)
-                     .parallel()
-                     .mapToObj(i -> startClient())
-                     .takeWhile(responseTime -> responseTime > -1) //Só funciona em Java 9
-                     .collect(Collectors.toCollection(LinkedList::new));*/
-
-        connectionTimes =
-                IntStream.range(0, MAX_CLIENTS)
-                        .parallel()
-                        .mapToObj(i -> startClient())
-                        .filter(responseTime -> responseTime > -1)
-                        .collect(Collectors.toCollection(LinkedList::new));
-        printConnectionResults();
+        //O cliente que verificou se o servidor está em execução já conta como um dos clientes a conectar.
+        final int pendingClients = MAX_CLIENTS - clients.size();
+        System.out.printf("Conectando %d clientes com o perfil de chegada %s usando %d threads...\n", pendingClients, ARRIVAL_PROFILE, CONNECT_THREADS);
+        final long[] schedule = ARRIVAL_PROFILE.schedule(pendingClients);
+        final OpenLoopScheduler scheduler = new OpenLoopScheduler("connect", CONNECT_THREADS);
+        connectionSeries = new TimeSeries(System.nanoTime(), "tentativas", "conexões", "falhas");
+        scheduler.run(schedule, (i, intendedNanos) -> startClient(intendedNanos));
+        printConnectionResults(scheduler);
     }
 
     /**
@@ -101,157 +343,406 @@ abstract class ChatScalabilityAbstract<T extends Closeable> implements Closeable
      * @throws ConnectException quando o servidor de chat não for localizado
      */
     protected void start() throws ConnectException{
+        final Map<String, Double> serverMetricsBefore = scrapeServerMetrics(new HashSet<>());
         startClients();
+        printResponseResults(sendMessages());
+        printServerMetrics(serverMetricsBefore);
+        writeReport();
+    }
+
+    /**
+     * Obtém as métricas do servidor pelo endpoint {@link #serverMetricsUrl}.
+     * @param counters conjunto onde são incluídos os nomes das métricas que são contadores
+     * @return as métricas obtidas ou um mapa vazio se não foi possível obtê-las
+     */
+    private Map<String, Double> scrapeServerMetrics(final Set<String> counters) {
+        if(serverMetricsUrl.isEmpty()){
+            return Collections.emptyMap();
+        }
+
+        try {
+            return ServerMetrics.scrape(serverMetricsUrl, counters);
+        } catch (IOException e) {
+            System.err.println("Não foi possível obter as métricas do servidor em " + serverMetricsUrl + ": " + e.getMessage());
+            return Collections.emptyMap();
+        }
+    }
 
-        //sendMessages();
-        printResponseResults();
+    /**
+     * Exibe as métricas do servidor e as inclui nos resultados.
+     * Para os contadores (como mensagens recebidas), é considerada apenas a variação durante o teste.
+     * @param before métricas obtidas antes do início do teste
+     */
+    private void printServerMetrics(final Map<String, Double> before) {
+        final Set<String> counters = new HashSet<>();
+        final Map<String, Double> after = scrapeServerMetrics(counters);
+        if(after.isEmpty()){
+            return;
+        }
+
+        System.out.println("Métricas do servidor (contadores mostram a variação durante o teste):");
+        after.forEach((name, value) -> {
+            final double metricValue = counters.contains(name) ? value - before.getOrDefault(name, 0.0) : value;
+            final String metricName = name.replaceFirst("^chat_", "server_");
+            System.out.printf("\t%-32s %.3f\n", metricName, metricValue);
+            report.addMetric(metricName, metricValue, BenchmarkReport.Better.NONE);
+        });
+        System.out.println();
+    }
+
+    /**
+     * Grava os resultados em arquivos no diretório {@link #REPORT_DIR},
+     * incluindo a configuração usada na execução.
+     */
+    private void writeReport() {
+        if(REPORT_DIR.isEmpty()){
+            return;
+        }
+
+        report.addConfig("app", getClass().getSimpleName());
+        report.addConfig("timestamp", LocalDateTime.now().withNano(0));
+        report.addConfig("java.version", System.getProperty("java.version"));
+        report.addConfig("cpus", Runtime.getRuntime().availableProcessors());
+        report.addConfig("servers", Arrays.toString(serverAddresses));
+        report.addConfig("chat.client.max", MAX_CLIENTS);
+        report.addConfig("chat.client.arrival", ARRIVAL_PROFILE);
+        report.addConfig("chat.client.connectThreads", CONNECT_THREADS);
+        report.addConfig("chat.msg.rate", MESSAGE_RATE);
+        report.addConfig("chat.msg.duration", MESSAGE_DURATION_SECS);
+        report.addConfig("chat.msg.size", MESSAGE_SIZES);
+        report.addConfig("chat.msg.threads", SENDER_THREADS);
+        new TreeMap<>(System.getProperties()).forEach((name, value) -> {
+            if(name.toString().startsWith("chat.")) {
+                report.addConfig(name.toString(), value);
+            }
+        });
+
+        final String fileName = String.format("chat-%s-%s", getClass().getSimpleName(), LocalDateTime.now().format(REPORT_TIME_FORMATTER));
+        final Path basePath = Paths.get(REPORT_DIR, fileName);
+        try {
+            report.write(basePath);
+            System.out.println("Resultados gravados em " + basePath.toAbsolutePath() + ".json e arquivos CSV");
+        } catch (IOException e) {
+            System.err.println("Não foi possível gravar os resultados em " + REPORT_DIR + ": " + e.getMessage());
+        }
     }
 
     /**
-     * Obtém o intervalo de tempo passado desde a chamada de System.currentTimeMillis()
+     * Obtém o intervalo de tempo passado desde a chamada de {@link System#nanoTime()}
      * até o momento atual.
-     * @param startTimeMillis tempo em milisegundos em que System.currentTimeMillis() foi chamado
-     * @return o tempo total (em segundos) desde a chamada de System.currentTimeMillis()
+     * @param startNanos tempo em nanossegundos retornado por System.nanoTime()
+     * @return o tempo total (em nanossegundos) desde a chamada de System.nanoTime()
      */
-    protected double getTimeInterval(final long startTimeMillis) {
-        return (System.currentTimeMillis() - startTimeMillis)/1000.0;
+    protected long getTimeInterval(final long startNanos) {
+        return System.nanoTime() - startNanos;
     }
 
-    private synchronized void printConnectionResults() {
-        final double minCT  = getDoubleStream(connectionTimes).min().orElse(0);
-        final double maxCT  = getDoubleStream(connectionTimes).max().orElse(0);
-        final double meanCT = getDoubleStream(connectionTimes).average().orElse(0);
+    private synchronized void printConnectionResults(final OpenLoopScheduler scheduler) {
+        final LatencyHistogram histogram = connectionTimes.getHistogram();
         final double successfulConnectionsPercent = clients.size()/(double)MAX_CLIENTS*100;
 
         System.out.println("Resultados dos Testes de Escalabilidade do Servidor de Chat");
         System.out.println("----------------------------------------------------------------------");
         System.out.println("Máximo de clientes:           " + MAX_CLIENTS);
         System.out.println("Total de clientes conectados: " + clients.size());
+        System.out.println("Falhas de conexão:            " + failedConnections.sum());
         System.out.printf("%% de conexões com sucesso:    %.2f%%\n", successfulConnectionsPercent);
-
-        System.out.printf("Tempo mínimo para conexão:    %.4f segundo(s)\n",  minCT);
-        System.out.printf("Tempo máximo para conexão:    %.4f segundo(s)\n",  maxCT);
-        System.out.printf("Tempo médio  para conexão:    %.4f segundo(s)\n",  meanCT);
+        printLatency("Atraso máximo do escalonador", scheduler.getMaxLagNanos());
+        printLatencies("conexão", histogram);
         System.out.println();
+        connectionSeries.print("Conexões por segundo (perfil de chegada " + ARRIVAL_PROFILE + ")");
+
+        report.addMetric("clients_max", MAX_CLIENTS, BenchmarkReport.Better.NONE);
+        report.addMetric("clients_connected", clients.size(), BenchmarkReport.Better.HIGHER);
+        report.addMetric("connect_failures", failedConnections.sum(), BenchmarkReport.Better.LOWER);
+        report.addMetric("connect_success_percent", successfulConnectionsPercent, BenchmarkReport.Better.HIGHER);
+        report.addMetric("connect_scheduler_lag_ms", LatencyHistogram.toMillis(scheduler.getMaxLagNanos()), BenchmarkReport.Better.NONE);
+        report.addLatencies("connect", histogram, PERCENTILES);
+        report.addSeries("connections", connectionSeries);
     }
 
-    protected synchronized void printResponseResults(){
-        if(responseTimes.isEmpty()){
+    protected synchronized void printResponseResults(final OpenLoopScheduler scheduler){
+        final LatencyHistogram histogram = responseTimes.getHistogram();
+        if(scheduler == null || sentMessages.sum() == 0){
             return;
         }
-        final double minRT = getDoubleStream(responseTimes).min().orElse(0);
-        final double maxRT = getDoubleStream(responseTimes).max().orElse(0);
-        final double meanRT = getDoubleStream(responseTimes).average().orElse(0);
 
-        System.out.println("Máximo de mensagens a enviar:  " + MAX_MESSAGES);
-        System.out.println("Total de mensagens enviadas:   " + responseTimes.size());
+        final long received = receivedMessages.sum();
+        final long lostMessages = sentMessages.sum() - failedMessages.sum() - received;
+        System.out.println("Máximo de mensagens a enviar:  " + getMaxMessages());
+        System.out.println("Total de mensagens enviadas:   " + sentMessages.sum());
+        System.out.println("Total de respostas recebidas:  " + received);
+        System.out.println("Falhas de envio:               " + failedMessages.sum());
+        System.out.println("Mensagens sem resposta:        " + Math.max(0, lostMessages));
+        System.out.println("Mensagens descartadas:         " + unexpectedMessages.sum());
+        System.out.println("Tamanho das mensagens:         " + MESSAGE_SIZES + " bytes");
+        printLatency("Atraso máximo do escalonador", scheduler.getMaxLagNanos());
+
+        report.addMetric("messages_planned", getMaxMessages(), BenchmarkReport.Better.NONE);
+        report.addMetric("messages_sent", sentMessages.sum(), BenchmarkReport.Better.NONE);
+        report.addMetric("message_failures", failedMessages.sum(), BenchmarkReport.Better.LOWER);
+        report.addMetric("messages_unexpected", unexpectedMessages.sum(), BenchmarkReport.Better.NONE);
+        report.addMetric("send_scheduler_lag_ms", LatencyHistogram.toMillis(scheduler.getMaxLagNanos()), BenchmarkReport.Better.NONE);
+        report.addSeries("messages", messageSeries);
+        if(received == 0 && unexpectedMessages.sum() > 0){
+            System.out.println(
+                "Nenhuma mensagem foi devolvida ao cliente que a enviou. Para medir os tempos de resposta e a vazão,\n" +
+                "inicie o servidor em modo eco (-Dchat.echo=true).");
+            System.out.println("------------------------------------------------------\n");
+            return;
+        }
 
-        System.out.printf("Tempo mínimo para resposta:    %.4f segundo(s)\n", minRT);
-        System.out.printf("Tempo máximo para resposta:    %.4f segundo(s)\n", maxRT);
-        System.out.printf("Tempo médio  para resposta:    %.4f segundo(s)\n", meanRT);
+        //A vazão considera o tempo realmente decorrido, que pode ser maior que o configurado se o envio atrasar.
+        final double elapsedSecs = received == 0 ? 0 : (lastReceiveNanos.get() - firstSendNanos.get()) / (double)TimeUnit.SECONDS.toNanos(1);
+        final double throughput = elapsedSecs > 0 ? received / elapsedSecs : 0;
+        System.out.printf("Vazão de respostas:            %.1f mensagens/segundo (em %.1f segundos)\n", throughput, elapsedSecs);
+        printLatencies("resposta", histogram);
         System.out.println("------------------------------------------------------\n");
+
+        report.addMetric("messages_received", received, BenchmarkReport.Better.HIGHER);
+        report.addMetric("messages_lost", Math.max(0, lostMessages), BenchmarkReport.Better.LOWER);
+        report.addMetric("throughput_msgs_per_sec", throughput, BenchmarkReport.Better.HIGHER);
+        report.addLatencies("response", histogram, PERCENTILES);
     }
 
-    @Override
-    public void close() {
-        for (T client : clients) {
-            try {
-                client.close();
-            }catch(IOException e){
-            }
+    private static long getMaxMessages() {
+        return (long)MESSAGE_RATE * MESSAGE_DURATION_SECS;
+    }
+
+    /**
+     * Imprime as estatísticas de latência registradas em um histograma.
+     * @param operation nome da operação cuja latência foi medida
+     * @param histogram histograma com as latências
+     */
+    private void printLatencies(final String operation, final LatencyHistogram histogram) {
+        printLatency("Tempo mínimo para " + operation, histogram.getMin());
+        printLatency("Tempo médio  para " + operation, histogram.getMean());
+        for (final double percentile : PERCENTILES) {
+            printLatency(String.format("Percentil %s%% para %s", formatPercentile(percentile), operation),
+                         histogram.getValueAtPercentile(percentile));
         }
+        printLatency("Tempo máximo para " + operation, histogram.getMax());
+    }
+
+    private void printLatency(final String label, final double nanos) {
+        System.out.printf("%-32s %10.3f ms\n", label + ":", LatencyHistogram.toMillis(nanos));
+    }
+
+    private static String formatPercentile(final double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long)percentile) : String.valueOf(percentile);
     }
 
-    private DoubleStream getDoubleStream(final List<Double> connectionTimes) {
-        return connectionTimes.stream().mapToDouble(v -> v);
+    @Override
+    public void close() {
+        clients.close();
     }
 
     /**
-     * Decide aleatoriamente, se uma uma conexão cliente com o servidor será aberta,
-     * baseada em uma determinada probabilidade.
+     * Abre uma conexão cliente com o servidor.
      *
-     * @return tempo que levou para conectar (em segundos) ou -1 se a conexão não foi estabelecida
+     * @param intendedNanos instante (obtido a partir de {@link System#nanoTime()}) em que a conexão
+     *                      deveria ter sido iniciada, a partir do qual o tempo de conexão é medido
+     * @return true se a conexão foi estabelecida, false caso contrário
      */
-    private double startClient() {
-        /*Aleatoraimente aguarda alguns milisegundos para dar tempo
-        entre uma conexão e outra, e asssim o servidor poder "respirar"*/
-        final long delay = Math.round(random.nextDouble() * 1000);
-        try {
-            Thread.sleep(delay);
-        } catch (InterruptedException e) {
-        }
-
+    private boolean startClient(final long intendedNanos) {
+        incrementConnectionSeries(ATTEMPTS_COLUMN, intendedNanos);
         try {
-            final long start = System.currentTimeMillis();
-            final String serverIp = getNextServerIp();
-            System.out.println(
-                    "Conectando novo cliente #" + clients.size() + " (de um máx. esperado de "+
-                    MAX_CLIENTS+") no servidor de chat em " + serverIp);
-            T clientSocket = newClient(serverIp);
+            final int connectionIndex = nextConnectionIndex.getAndIncrement();
+            final T clientSocket = newClient(getServerAddress(connectionIndex), getLocalAddress(connectionIndex));
+            connectionTimes.record(getTimeInterval(intendedNanos));
             clients.add(clientSocket);
-            return getTimeInterval(start);
+            incrementConnectionSeries(CONNECTIONS_COLUMN, System.nanoTime());
+            return true;
         } catch (IOException e) {
-            return -1;
+            failedConnections.increment();
+            incrementConnectionSeries(FAILURES_COLUMN, System.nanoTime());
+            return false;
         }
     }
 
-    private String getCurrentServerIp() {
-        return serverIps[currentServerIpIndex];
+    private void incrementConnectionSeries(final int column, final long timeNanos) {
+        if(connectionSeries != null) {
+            connectionSeries.increment(column, timeNanos);
+        }
     }
 
     /**
-     * Obtém o próximo endereço IP do servidor de chat
-     * da lista {@link #serverIps}.
+     * Combina cada IP do servidor com cada uma das portas onde ele aceita conexões.
+     * @param serverIps IPs do servidor
+     * @return os endereços do servidor
+     */
+    private static InetSocketAddress[] newServerAddresses(final String[] serverIps) {
+        final InetSocketAddress[] addresses = new InetSocketAddress[serverIps.length * ChatServerAbstract.PORTS];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = new InetSocketAddress(serverIps[i % serverIps.length], ChatServerAbstract.getPort(i / serverIps.length));
+        }
+
+        return addresses;
+    }
+
+    /**
+     * Obtém o endereço do servidor onde uma conexão será aberta,
+     * como se o vetor de endereços fosse uma lista circular.
      * Com isto, é feito balanceamento do número de clientes que vai conectar
-     * em cada IP do servidor de chat.
+     * em cada IP e porta do servidor de chat.
      *
-     * @return o IP selecionado para o cliente conectar no servidor de chat
+     * @param connectionIndex índice da conexão
+     * @return o endereço selecionado para o cliente conectar no servidor de chat
      */
-    private String getNextServerIp() {
-        final String serverIp = getCurrentServerIp();
+    private InetSocketAddress getServerAddress(final int connectionIndex) {
+        return serverAddresses[Math.floorMod(connectionIndex, serverAddresses.length)];
+    }
+
+    /**
+     * Obtém o endereço local ao qual uma conexão será vinculada.
+     * Os endereços locais só mudam após a conexão ser aberta em todos os endereços do servidor,
+     * distribuindo as conexões igualmente entre todas as combinações de endereços de origem e destino.
+     *
+     * @param connectionIndex índice da conexão
+     * @return o endereço local selecionado ou null se nenhum foi configurado
+     */
+    private InetAddress getLocalAddress(final int connectionIndex) {
+        if(LOCAL_ADDRESSES.length == 0){
+            return null;
+        }
+
+        return LOCAL_ADDRESSES[Math.floorMod(connectionIndex / serverAddresses.length, LOCAL_ADDRESSES.length)];
+    }
+
+    /**
+     * Obtém os endereços IP indicados em uma lista separada por vírgulas,
+     * onde cada item pode ser um único endereço ou um intervalo de endereços IPv4, como "127.0.0.2-127.0.0.20".
+     * @param spec lista de endereços
+     * @return os endereços obtidos
+     * @throws IllegalArgumentException se algum endereço for inválido
+     */
+    private static InetAddress[] parseAddresses(final String spec) {
+        final List<InetAddress> addresses = new ArrayList<>();
+        try {
+            for (final String item : spec.split(",")) {
+                if(item.trim().isEmpty()){
+                    continue;
+                }
+
+                final String[] range = item.split("-");
+                final InetAddress first = InetAddress.getByName(range[0].trim());
+                if(range.length == 1){
+                    addresses.add(first);
+                    continue;
+                }
+
+                final long last = toLong(InetAddress.getByName(range[1].trim()));
+                for (long ip = toLong(first); ip <= last; ip++) {
+                    addresses.add(InetAddress.getByAddress(new byte[]{(byte)(ip >> 24), (byte)(ip >> 16), (byte)(ip >> 8), (byte)ip}));
+                }
+            }
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Endereço local inválido em " + spec + ": " + e.getMessage(), e);
+        }
+
+        return addresses.toArray(new InetAddress[0]);
+    }
 
-        currentServerIpIndex++;
-        //obtém o próximo IP como se o vetor fosse uma lista circular (chegou no último, volta ao primeiro)
-        if(currentServerIpIndex >= serverIps.length){
-            currentServerIpIndex = 0;
+    /**
+     * Converte um endereço IPv4 para um número.
+     * @param address endereço IPv4
+     * @return o número correspondente ao endereço
+     */
+    private static long toLong(final InetAddress address) {
+        final byte[] bytes = address.getAddress();
+        if(bytes.length != 4){
+            throw new IllegalArgumentException("Intervalos de endereços locais só são suportados para IPv4: " + address);
         }
-        return serverIp;
+
+        return ((bytes[0] & 0xFFL) << 24) | ((bytes[1] & 0xFFL) << 16) | ((bytes[2] & 0xFFL) << 8) | (bytes[3] & 0xFFL);
     }
 
-    protected abstract T newClient(final String chatServerIp) throws IOException;
+    /**
+     * Abre a conexão de um novo cliente com o servidor.
+     * @param serverAddress endereço (IP e porta) do servidor
+     * @param localAddress endereço IP local ao qual a conexão deve ser vinculada,
+     *                     ou null para o SO escolher o endereço de origem
+     * @return o objeto que representa a conexão do cliente
+     */
+    protected abstract T newClient(InetSocketAddress serverAddress, InetAddress localAddress) throws IOException;
 
     /**
-     * Envia mensagens aleatórias para os clientes e coleta o tempo
-     * para recebimento de cada resposta.
+     * Envia mensagens de teste a partir de clientes aleatórios, numa taxa constante,
+     * e aguarda as respostas de tais mensagens.
+     * @return o escalonador usado para enviar as mensagens, ou null se não há clientes conectados
      */
-    private void sendMessages() {
-        final int clientsCount = clients.size();
-        responseTimes =
-            IntStream.range(0, MAX_MESSAGES)
-                     .parallel()
-                     .map(i -> random.nextInt(clientsCount))
-                     .mapToObj(this::sendMessage)
-                     .filter(responseTime -> responseTime > -1)
-                     .collect(Collectors.toCollection(LinkedList::new));
+    private OpenLoopScheduler sendMessages() {
+        final List<T> clientList = clients.snapshot();
+        if(clientList.isEmpty()){
+            return null;
+        }
+
+        System.out.printf(
+            "Enviando %d mensagens por segundo durante %d segundos usando %d threads...\n",
+            MESSAGE_RATE, MESSAGE_DURATION_SECS, SENDER_THREADS);
+
+        final OpenLoopScheduler scheduler = new OpenLoopScheduler("sender", SENDER_THREADS);
+        messageSeries = new TimeSeries(System.nanoTime(), "enviadas", "respostas", "falhas");
+        scheduler.run(
+            OpenLoopScheduler.constantRate((int)getMaxMessages(), MESSAGE_RATE),
+            (i, intendedNanos) -> sendMessage(clientList.get(ThreadLocalRandom.current().nextInt(clientList.size())), intendedNanos));
+        waitResponses();
+        //As respostas que chegarem a partir de agora são descartadas.
+        pendingMessages.clear();
+        return scheduler;
     }
 
     /**
-     * Envia mensagem ao servidor.
-     * @return tempo que levou para chegar a resposta (em segundos)
+     * Aguarda a chegada das respostas das mensagens enviadas, até que o tempo máximo de espera termine.
      */
-    private double sendMessage(final int clientId) {
-        if(clientId >= clients.size()){
-            return -1;
+    private void waitResponses() {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RESPONSE_TIMEOUT_MS);
+        while(receivedMessages.sum() + failedMessages.sum() < sentMessages.sum() && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+    }
+
+    /**
+     * Envia uma mensagem de teste ao servidor a partir de um determinado cliente.
+     * @param intendedNanos instante (obtido a partir de {@link System#nanoTime()}) em que a mensagem
+     *                      deveria ter sido enviada, a partir do qual o tempo de resposta é medido
+     */
+    private void sendMessage(final T client, final long intendedNanos) {
+        sentMessages.increment();
+        incrementMessageSeries(SENT_COLUMN, intendedNanos);
+        if(firstSendNanos.get() == 0) {
+            firstSendNanos.compareAndSet(0, System.nanoTime());
         }
 
-        final T client = clients.get(clientId);
-        final long start = System.currentTimeMillis();
-        if(sendMessage(client, randomMsg())){
-            return getTimeInterval(start);
+        final ByteBuffer frame = newMessageFrame(intendedNanos);
+        final long sequence = getSequence(frame);
+        //Registrada antes do envio, pois a resposta pode chegar antes do método de envio retornar.
+        pendingMessages.put(sequence, client);
+        if(!sendMessage(client, frame)){
+            //Uma resposta que chegue depois (após o tempo limite, por exemplo) será descartada.
+            pendingMessages.remove(sequence);
+            failedMessages.increment();
+            incrementMessageSeries(FAILURES_COLUMN, System.nanoTime());
         }
+    }
 
-        return -1;
+    private void incrementMessageSeries(final int column, final long timeNanos) {
+        final TimeSeries series = messageSeries;
+        if(series != null) {
+            series.increment(column, timeNanos);
+        }
     }
 
-    protected abstract boolean sendMessage(T client, String msg);
+    /**
+     * Envia uma mensagem ao servidor.
+     * Implementações que aguardam a resposta de forma síncrona
+     * devem chamar {@link #onMessageReceived(Closeable, ByteBuffer)} ao recebê-la.
+     * Implementações assíncronas podem retornar logo após enviar (ou enfileirar) a mensagem,
+     * chamando tal método quando a resposta chegar.
+     *
+     * @param client cliente que vai enviar a mensagem
+     * @param frame mensagem já codificada como um frame por {@link FrameCodec}
+     * @return true se a mensagem foi enviada, false caso contrário
+     */
+    protected abstract boolean sendMessage(T client, ByteBuffer frame);
 }
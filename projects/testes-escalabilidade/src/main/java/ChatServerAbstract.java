@@ -1,39 +1,125 @@
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.logging.FileHandler;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.logging.Level;
-import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 /**
+ * Classe base para os servidores de chat, que define as configurações comuns,
+ * o comando de saída e a sala de chat por onde as mensagens dos clientes são distribuídas.
+ * As mensagens trocadas com os clientes são delimitadas pelo {@link FrameCodec}.
+ *
  * @author Manoel Campos da Silva Filho
  */
 public abstract class ChatServerAbstract implements Closeable {
     protected static final Logger LOGGER = Logger.getLogger(ChatServerAbstract.class.getSimpleName());
-    public static final int MAX_PENDING_CONNECTIONS = 40000;
+    /**
+     * Tamanho da fila de conexões pendentes (backlog), que aguardam ser aceitas pelo servidor.
+     * O SO pode limitar tal valor (como pelo parâmetro net.core.somaxconn no Linux).
+     */
+    public static final int MAX_PENDING_CONNECTIONS = Config.getInt("chat.backlog", 40000);
     public static final int PORT = 4000;
 
+    /**
+     * Número de portas consecutivas, a partir de {@link #PORT}, em que os servidores aceitam conexões.
+     * Como cada conexão TCP é identificada pela tupla (IP de origem, porta de origem, IP de destino, porta de destino),
+     * usar várias portas no servidor permite que um mesmo cliente abra mais conexões
+     * do que o número de portas efêmeras disponíveis na sua máquina.
+     */
+    public static final int PORTS = Math.max(1, Config.getInt("chat.ports", 1));
+
+    /**
+     * Comando que um cliente envia para encerrar sua conexão com o servidor.
+     */
+    protected static final byte[] EXIT_COMMAND = "sair".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Indica se cada mensagem recebida deve ser devolvida apenas ao cliente que a enviou (eco),
+     * no lugar de ser repassada aos demais clientes da sala.
+     * Permite que os testes de escalabilidade meçam o tempo de ida e volta (round-trip) das mensagens.
+     */
+    protected static final boolean ECHO = Config.getBoolean("chat.echo", false);
+
+    /**
+     * Sala de chat onde todos os clientes conectados são incluídos.
+     * Cada mensagem recebida de um cliente é repassada a todos os demais.
+     */
+    protected final ChatRoom room = new ChatRoom("geral");
+
+    /**
+     * Métricas do servidor, disponibilizadas por JMX e HTTP após a chamada de {@link #publishMetrics()}.
+     */
+    protected final ServerMetrics metrics = new ServerMetrics();
+
     static {
         final String logName = "output.log";
         LOGGER.setLevel(Level.WARNING);
         try {
-            final FileHandler handler = new FileHandler(logName){
-                /**
-                 * Automatically flushs every logged record to the file.
-                 * @param record
-                 */
-                @Override
-                public synchronized void publish(final LogRecord record) {
-                    super.publish(record);
-                    flush();
-                }
-            };
-
-            LOGGER.addHandler(handler);
+            /*Os registros são gravados em arquivo por uma thread em segundo plano,
+            * assim as threads que geram logs não ficam bloqueadas aguardando a gravação.*/
+            LOGGER.addHandler(new AsyncLogHandler(logName));
             //Remove the console handler
             LOGGER.setUseParentHandlers(false);
         } catch (IOException e) {
             System.err.println("Não foi possível gerar o arquivo de log " + logName + ": " + e.getMessage());
         }
     }
+
+    /**
+     * Verifica se uma mensagem recebida é o comando para o cliente encerrar sua conexão.
+     * @param msg conteúdo da mensagem, que não tem sua posição alterada
+     * @return true se a mensagem é o comando de saída, false caso contrário
+     */
+    protected static boolean isExitCommand(final ByteBuffer msg) {
+        return FrameCodec.endsWith(msg, EXIT_COMMAND);
+    }
+
+    /**
+     * Entrega uma mensagem recebida de um cliente:
+     * a devolve ao remetente, se o servidor estiver em modo eco, ou a repassa aos demais clientes da sala.
+     * @param sender cliente que enviou a mensagem
+     * @param msg conteúdo da mensagem, que não tem sua posição alterada
+     */
+    void deliver(final ChatSubscriber sender, final ByteBuffer msg) {
+        final ByteBuffer frame = encode(msg);
+        if(ECHO) {
+            sender.send(frame);
+        } else room.broadcast(sender, frame);
+    }
+
+    /**
+     * Codifica uma mensagem a ser enviada aos clientes, no formato definido pelo {@link FrameCodec}.
+     * @param msg conteúdo da mensagem, que não tem sua posição alterada
+     * @return um novo buffer, pronto para ser lido, contendo o frame da mensagem
+     */
+    protected ByteBuffer encode(final ByteBuffer msg) {
+        return FrameCodec.encode(msg);
+    }
+
+    /**
+     * Obtém uma das portas em que os servidores aceitam conexões.
+     * @param index índice da porta, entre 0 e {@link #PORTS}-1
+     * @return o número da porta
+     */
+    static int getPort(final int index) {
+        return PORT + index;
+    }
+
+    /**
+     * Disponibiliza as {@link #metrics métricas} do servidor por JMX e HTTP.
+     * Deve ser chamado após o servidor abrir suas portas, evitando deixar o endpoint de métricas
+     * em execução caso o servidor não consiga iniciar.
+     */
+    protected void publishMetrics() {
+        metrics.publish(getClass().getSimpleName());
+    }
+
+    ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    ChatRoom getRoom() {
+        return room;
+    }
 }
@@ -0,0 +1,41 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Um participante de uma {@link ChatRoom} que pode receber as mensagens enviadas a ela.
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+interface ChatSubscriber {
+    /**
+     * Envia um frame ao participante.
+     * Como o mesmo frame é compartilhado entre todos os participantes de uma sala,
+     * a implementação não deve alterar o conteúdo nem a posição do buffer recebido.
+     *
+     * @param frame frame já codificado por {@link FrameCodec}
+     * @return true se o frame foi enviado ou enfileirado para envio, false caso contrário
+     */
+    boolean send(ByteBuffer frame);
+
+    /**
+     * Envia um frame ao participante, apenas se ele ainda representa o mesmo cliente
+     * que estava na sala quando sua geração foi obtida.
+     * Participantes cujos objetos são reutilizados para novos clientes (veja {@link ChatConnection})
+     * devem rejeitar o frame se a geração for diferente da atual,
+     * evitando que uma mensagem destinada a um cliente que já saiu seja enviada ao novo cliente.
+     *
+     * @param frame frame já codificado por {@link FrameCodec}
+     * @param generation geração do participante quando ele entrou na sala (veja {@link #getGeneration()})
+     * @return true se o frame foi enviado ou enfileirado para envio, false caso contrário
+     */
+    default boolean send(ByteBuffer frame, int generation) {
+        return send(frame);
+    }
+
+    /**
+     * Obtém a geração do participante, que muda a cada vez que o objeto passa a representar outro cliente.
+     * @return a geração atual (sempre 0 para participantes que não são reutilizados)
+     */
+    default int getGeneration() {
+        return 0;
+    }
+}
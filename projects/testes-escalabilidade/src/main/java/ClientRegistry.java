@@ -0,0 +1,98 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Armazena as conexões dos clientes abertas por diferentes threads dos testes de escalabilidade.
+ *
+ * <p>Incluir as conexões em uma única lista compartilhada exigiria sincronizar todas as threads,
+ * fazendo-as disputar o mesmo lock a cada nova conexão. Já usar uma {@link ArrayList}
+ * sem sincronização faz com que conexões sejam perdidas quando duas threads as incluem ao mesmo tempo
+ * (e tais conexões nunca são fechadas).
+ * Aqui, cada thread inclui as conexões que abriu no seu próprio segmento (uma lista acessada apenas por ela),
+ * sem nenhum tipo de bloqueio. Os segmentos de todas as threads são combinados apenas ao final,
+ * quando as conexões precisam ser percorridas.</p>
+ *
+ * <p>Os métodos {@link #snapshot()} e {@link #close()} devem ser chamados somente após
+ * as threads que incluem conexões terminarem (como após o término do {@link OpenLoopScheduler}),
+ * garantindo que todas as conexões incluídas sejam vistas.
+ * Conexões incluídas após o registro ser fechado são imediatamente fechadas.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ * @param <T> o tipo de objetos que representam conexões dos clientes
+ */
+class ClientRegistry<T extends Closeable> implements Closeable {
+    private final Queue<List<T>> segments;
+    private final ThreadLocal<List<T>> threadSegment;
+    private final LongAdder size;
+    private volatile boolean closed;
+
+    ClientRegistry() {
+        this.segments = new ConcurrentLinkedQueue<>();
+        this.threadSegment = ThreadLocal.withInitial(this::newSegment);
+        this.size = new LongAdder();
+    }
+
+    private List<T> newSegment() {
+        final List<T> segment = new ArrayList<>();
+        segments.add(segment);
+        return segment;
+    }
+
+    /**
+     * Inclui uma conexão no segmento da thread atual.
+     * @param client conexão a ser incluída
+     */
+    void add(final T client) {
+        if(closed){
+            closeClient(client);
+            return;
+        }
+
+        threadSegment.get().add(client);
+        size.increment();
+    }
+
+    /**
+     * Obtém o número de conexões incluídas.
+     */
+    int size() {
+        return size.intValue();
+    }
+
+    /**
+     * Combina os segmentos de todas as threads em uma única lista.
+     * @return uma nova lista com todas as conexões incluídas
+     */
+    List<T> snapshot() {
+        final List<T> clients = new ArrayList<>(size());
+        for (final List<T> segment : segments) {
+            clients.addAll(segment);
+        }
+
+        return clients;
+    }
+
+    /**
+     * Fecha todas as conexões incluídas.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (final List<T> segment : segments) {
+            segment.forEach(this::closeClient);
+            segment.clear();
+        }
+    }
+
+    private void closeClient(final T client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+        }
+    }
+}
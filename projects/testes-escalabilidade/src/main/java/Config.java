@@ -0,0 +1,75 @@
+import java.util.Locale;
+
+/**
+ * Obtém parâmetros de configuração das aplicações a partir de propriedades do sistema,
+ * que podem ser passadas na linha de comando no formato {@code -Dnome=valor}.
+ * Por exemplo: {@code java -Dchat.reactors=4 -cp scalability-tests-1.0.0.jar NonBlockingChatServer}
+ *
+ * <p>Se uma propriedade não for informada ou tiver um valor inválido,
+ * o valor padrão indicado é utilizado.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+final class Config {
+    private Config(){/**/}
+
+    static String getString(final String name, final String defaultValue) {
+        final String value = System.getProperty(name);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    /**
+     * Obtém uma propriedade para a qual um valor vazio tem significado próprio
+     * (como desabilitar um recurso), diferente de não informar a propriedade.
+     * @return o valor informado (mesmo que vazio) ou o valor padrão, se a propriedade não foi informada
+     */
+    static String getStringOrEmpty(final String name, final String defaultValue) {
+        final String value = System.getProperty(name);
+        return value == null ? defaultValue : value.trim();
+    }
+
+    static int getInt(final String name, final int defaultValue) {
+        try {
+            return Integer.parseInt(getString(name, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            System.err.println("Valor inválido para a propriedade " + name + ". Usando " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static long getLong(final String name, final long defaultValue) {
+        try {
+            return Long.parseLong(getString(name, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            System.err.println("Valor inválido para a propriedade " + name + ". Usando " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static double getDouble(final String name, final double defaultValue) {
+        try {
+            return Double.parseDouble(getString(name, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            System.err.println("Valor inválido para a propriedade " + name + ". Usando " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Obtém uma propriedade cujo valor é uma das constantes de um enum,
+     * informada sem diferenciar maiúsculas de minúsculas (como {@code platform} para {@code PLATFORM}).
+     */
+    static <E extends Enum<E>> E getEnum(final String name, final Class<E> type, final E defaultValue) {
+        final String value = getString(name, defaultValue.name());
+        try {
+            return Enum.valueOf(type, value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Valor inválido para a propriedade " + name + ". Usando " + defaultValue.name().toLowerCase(Locale.ROOT));
+            return defaultValue;
+        }
+    }
+
+    static boolean getBoolean(final String name, final boolean defaultValue) {
+        return Boolean.parseBoolean(getString(name, String.valueOf(defaultValue)));
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codifica e decodifica as mensagens trocadas entre clientes e servidores de chat,
+ * definindo os limites de cada mensagem (framing).
+ *
+ * <p>Como TCP é um protocolo orientado a fluxo de bytes (stream), uma leitura do socket
+ * pode retornar parte de uma mensagem ou várias mensagens juntas.
+ * Assim, cada mensagem (frame) é precedida de um cabeçalho de {@link #HEADER_LENGTH} bytes
+ * contendo o tamanho do conteúdo (payload), como mostrado abaixo:</p>
+ *
+ * <pre>
+ * +-------------------------+------------------------------+
+ * | tamanho (int, 4 bytes)  | conteúdo (tamanho bytes)     |
+ * +-------------------------+------------------------------+
+ * </pre>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+final class FrameCodec {
+    /**
+     * Tamanho (em bytes) do cabeçalho que indica o tamanho do conteúdo da mensagem.
+     */
+    static final int HEADER_LENGTH = Integer.BYTES;
+
+    /**
+     * Tamanho máximo (em bytes) do conteúdo de uma mensagem.
+     */
+    static final int MAX_PAYLOAD_LENGTH = Config.getInt("chat.frame.maxPayload", 1024);
+
+    private FrameCodec(){/**/}
+
+    /**
+     * Codifica uma mensagem, gerando um frame que pode ser enviado a vários destinatários.
+     * @param payload buffer contendo o conteúdo da mensagem, que não tem sua posição alterada
+     * @return um novo buffer, pronto para ser lido, contendo o cabeçalho e o conteúdo da mensagem
+     */
+    static ByteBuffer encode(final ByteBuffer payload) {
+        final ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH + payload.remaining());
+        frame.putInt(payload.remaining()).put(payload.duplicate());
+        //O cast para Buffer evita erro ao executar em Java 8 um código compilado em versões posteriores.
+        ((Buffer)frame).flip();
+        return frame;
+    }
+
+    /**
+     * Codifica uma mensagem, gerando um frame que pode ser enviado a vários destinatários.
+     * @param payload conteúdo da mensagem
+     * @return um novo buffer, pronto para ser lido, contendo o cabeçalho e o conteúdo da mensagem
+     */
+    static ByteBuffer encode(final byte[] payload) {
+        return encode(ByteBuffer.wrap(payload));
+    }
+
+    /**
+     * Obtém o conteúdo do próximo frame completo disponível em um buffer.
+     * Se houver um frame completo, a posição do buffer é avançada para o início do frame seguinte.
+     * Caso contrário, a posição não é alterada, permitindo que o restante do frame seja lido posteriormente.
+     *
+     * @param buffer buffer, pronto para ser lido, contendo os bytes recebidos
+     * @return uma fatia (slice) do buffer contendo apenas o conteúdo do frame (sem cópia de dados)
+     *         ou null se o buffer não possui um frame completo
+     * @throws ProtocolException se o cabeçalho indicar um tamanho de conteúdo inválido
+     */
+    static ByteBuffer nextFrame(final ByteBuffer buffer) throws ProtocolException {
+        if(buffer.remaining() < HEADER_LENGTH){
+            return null;
+        }
+
+        final int position = buffer.position();
+        final int payloadLength = checkPayloadLength(buffer.getInt(position));
+        if(buffer.remaining() < HEADER_LENGTH + payloadLength){
+            return null;
+        }
+
+        final ByteBuffer payload = buffer.duplicate();
+        ((Buffer)payload).position(position + HEADER_LENGTH).limit(position + HEADER_LENGTH + payloadLength);
+        ((Buffer)buffer).position(position + HEADER_LENGTH + payloadLength);
+        return payload.slice();
+    }
+
+    /**
+     * Lê o próximo frame de um stream bloqueante.
+     * @param in stream de onde o frame será lido
+     * @return o conteúdo do frame ou null se a conexão foi encerrada
+     * @throws IOException se ocorrer um erro de leitura ou o frame for inválido
+     */
+    static byte[] read(final DataInputStream in) throws IOException {
+        final int payloadLength;
+        try {
+            payloadLength = checkPayloadLength(in.readInt());
+        } catch (EOFException e) {
+            return null;
+        }
+
+        final byte[] payload = new byte[payloadLength];
+        in.readFully(payload);
+        return payload;
+    }
+
+    /**
+     * Escreve um frame já codificado em um stream bloqueante.
+     * @param out stream onde o frame será escrito
+     * @param frame frame codificado por {@link #encode(ByteBuffer)}, que não tem sua posição alterada
+     */
+    static void write(final OutputStream out, final ByteBuffer frame) throws IOException {
+        if(frame.hasArray()){
+            out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        } else {
+            final byte[] bytes = new byte[frame.remaining()];
+            frame.duplicate().get(bytes);
+            out.write(bytes);
+        }
+        out.flush();
+    }
+
+    /**
+     * Verifica se o conteúdo de uma mensagem termina com uma determinada sequência de bytes,
+     * sem precisar convertê-la para String.
+     * @param payload buffer contendo o conteúdo da mensagem, que não tem sua posição alterada
+     * @param suffix sequência de bytes a ser verificada
+     * @return true se a mensagem termina com a sequência, false caso contrário
+     */
+    static boolean endsWith(final ByteBuffer payload, final byte[] suffix) {
+        final int start = payload.limit() - suffix.length;
+        if(start < payload.position()){
+            return false;
+        }
+
+        for (int i = 0; i < suffix.length; i++) {
+            if(payload.get(start + i) != suffix[i]){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Converte o conteúdo de uma mensagem para texto (UTF-8).
+     * Deve ser usado apenas quando o texto for realmente necessário,
+     * pois os servidores processam as mensagens diretamente como bytes.
+     * @param payload buffer contendo o conteúdo completo da mensagem, que não tem sua posição alterada
+     * @return o texto da mensagem
+     */
+    static String toText(final ByteBuffer payload) {
+        return StandardCharsets.UTF_8.decode(payload.duplicate()).toString();
+    }
+
+    private static int checkPayloadLength(final int payloadLength) throws ProtocolException {
+        if(payloadLength < 0 || payloadLength > MAX_PAYLOAD_LENGTH){
+            throw new ProtocolException("Tamanho de mensagem inválido: " + payloadLength + " bytes");
+        }
+
+        return payloadLength;
+    }
+}
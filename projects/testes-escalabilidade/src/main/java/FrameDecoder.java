@@ -0,0 +1,75 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodifica os frames (mensagens delimitadas pelo {@link FrameCodec}) recebidos por um stream bloqueante,
+ * sem alocar memória para cada mensagem.
+ *
+ * <p>Os dados são lidos diretamente do stream para um buffer reutilizado durante toda a conexão,
+ * que pode receber vários frames em uma única leitura. Cada mensagem é retornada como uma fatia (slice)
+ * de tal buffer, sem cópia dos dados, e o fim de cada frame é identificado pelo seu cabeçalho,
+ * e não pela conversão dos bytes para texto. Assim, um caractere UTF-8 de vários bytes
+ * que chegue dividido entre duas leituras nunca é decodificado pela metade:
+ * a conversão para String só é feita, se necessária, sobre o frame completo
+ * (veja {@link FrameCodec#toText(ByteBuffer)}).</p>
+ *
+ * <p>Cada instância deve ser usada por uma única thread.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+class FrameDecoder {
+    private final InputStream in;
+
+    /**
+     * Buffer (pronto para leitura) contendo os bytes recebidos e ainda não processados.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Instancia um decodificador.
+     * @param in stream de onde os frames serão lidos
+     * @param bufferSize tamanho (em bytes) do buffer de leitura.
+     *                   Se for menor que o maior frame possível, é usado o tamanho de tal frame.
+     */
+    FrameDecoder(final InputStream in, final int bufferSize) {
+        this.in = in;
+        this.buffer = ByteBuffer.allocate(Math.max(bufferSize, FrameCodec.HEADER_LENGTH + FrameCodec.MAX_PAYLOAD_LENGTH));
+        //O cast para Buffer evita erro ao executar em Java 8 um código compilado em versões posteriores.
+        ((Buffer)buffer).flip();
+    }
+
+    /**
+     * Obtém a próxima mensagem recebida, bloqueando até que um frame completo esteja disponível.
+     * @return uma fatia do buffer de leitura contendo apenas o conteúdo da mensagem,
+     *         que só é válida até a próxima chamada deste método,
+     *         ou null se a conexão foi encerrada
+     * @throws IOException se ocorrer um erro de leitura ou o frame for inválido
+     */
+    ByteBuffer next() throws IOException {
+        ByteBuffer msg;
+        while((msg = FrameCodec.nextFrame(buffer)) == null) {
+            if(!fill()){
+                return null;
+            }
+        }
+
+        return msg;
+    }
+
+    /**
+     * Lê mais dados do stream, mantendo no buffer os bytes de um frame incompleto.
+     * @return true se algum dado foi lido, false se a conexão foi encerrada
+     */
+    private boolean fill() throws IOException {
+        buffer.compact();
+        final int bytesRead = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        if(bytesRead > 0) {
+            ((Buffer)buffer).position(buffer.position() + bytesRead);
+        }
+
+        ((Buffer)buffer).flip();
+        return bytesRead != -1;
+    }
+}
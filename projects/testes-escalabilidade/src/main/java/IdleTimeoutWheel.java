@@ -0,0 +1,128 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Roda de tempo (hashed timing wheel) que encerra as conexões de um {@link ChatReactor}
+ * que ficaram sem receber nem enviar dados por mais tempo que o limite definido.
+ * Assim, clientes que caíram sem encerrar a conexão, ou que deixaram de consumir as mensagens,
+ * não mantêm seus descritores de arquivo e sua memória alocados indefinidamente.
+ *
+ * <p>A roda possui {@link #SLOTS} posições (slots), cada uma representando um intervalo de tempo (tick).
+ * Cada conexão fica em uma única posição, correspondente ao instante em que vai expirar.
+ * Para que as atividades de uma conexão (que ocorrem a cada leitura ou escrita) tenham custo O(1),
+ * elas apenas atualizam o instante da última atividade da conexão, sem alterar a roda.
+ * Quando a posição de uma conexão é processada, ela é encerrada se ficou ociosa pelo tempo limite
+ * ou é movida para a posição correspondente à sua nova expiração.
+ * Conexões encerradas por outros motivos são removidas da roda quando sua posição é processada.</p>
+ *
+ * <p>A roda só deve ser acessada pela thread do seu reator.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+class IdleTimeoutWheel {
+    /**
+     * Número de posições da roda. Deve ser uma potência de 2.
+     */
+    private static final int SLOTS = 64;
+
+    /**
+     * Duração mínima (em nanossegundos) de cada posição da roda.
+     */
+    private static final long MIN_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final long timeoutNanos;
+    private final long tickNanos;
+    private final long startNanos;
+    private final ArrayDeque<ChatConnection>[] slots;
+    private final ServerMetrics metrics;
+
+    /**
+     * Última posição (contada desde a criação da roda) cujas conexões foram verificadas.
+     */
+    private long currentTick;
+
+    /**
+     * Instancia uma roda de tempo.
+     * @param timeoutNanos tempo máximo (em nanossegundos) que uma conexão pode ficar sem atividade
+     * @param metrics métricas do servidor, onde as conexões encerradas por inatividade são contabilizadas
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    IdleTimeoutWheel(final long timeoutNanos, final ServerMetrics metrics) {
+        this.timeoutNanos = timeoutNanos;
+        this.tickNanos = Math.max(MIN_TICK_NANOS, timeoutNanos / SLOTS);
+        this.startNanos = System.nanoTime();
+        this.metrics = metrics;
+        this.slots = new ArrayDeque[SLOTS];
+        for (int i = 0; i < SLOTS; i++) {
+            slots[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Inclui uma conexão para ser monitorada.
+     * Uma conexão reutilizada que ainda está na roda (desde antes de ser encerrada) não é incluída novamente,
+     * pois a posição onde ela já está vai considerar a atividade da nova conexão.
+     * @param connection conexão a ser monitorada
+     */
+    void add(final ChatConnection connection) {
+        if(connection.isInIdleWheel()){
+            return;
+        }
+
+        connection.setInIdleWheel(true);
+        schedule(connection, connection.getLastActivityNanos() + timeoutNanos);
+    }
+
+    /**
+     * Inclui uma conexão na posição da roda correspondente ao instante em que ela vai expirar.
+     * Se tal instante estiver além de uma volta da roda, a conexão é verificada antes do tempo
+     * e simplesmente reagendada.
+     */
+    private void schedule(final ChatConnection connection, final long deadlineNanos) {
+        final long tick = Math.max(currentTick + 1, (deadlineNanos - startNanos) / tickNanos + 1);
+        slots[(int) (tick & (SLOTS - 1))].add(connection);
+    }
+
+    /**
+     * Verifica as posições da roda cujo tempo já passou,
+     * encerrando as conexões que ficaram ociosas pelo tempo limite.
+     * @param nowNanos instante atual, obtido por {@link System#nanoTime()}
+     */
+    void expire(final long nowNanos) {
+        final long nowTick = (nowNanos - startNanos) / tickNanos;
+        //Se o reator ficou muito tempo sem verificar a roda, basta percorrê-la uma vez.
+        final long firstTick = Math.max(currentTick + 1, nowTick - SLOTS + 1);
+        for (long tick = firstTick; tick <= nowTick; tick++) {
+            currentTick = tick;
+            expireSlot(slots[(int) (tick & (SLOTS - 1))], nowNanos);
+        }
+        currentTick = Math.max(currentTick, nowTick);
+    }
+
+    private void expireSlot(final ArrayDeque<ChatConnection> slot, final long nowNanos) {
+        //Conexões reagendadas para a mesma posição são incluídas após as que estão sendo verificadas.
+        for (int i = slot.size(); i > 0; i--) {
+            final ChatConnection connection = slot.poll();
+            if(connection.isClosed()){
+                connection.setInIdleWheel(false);
+                continue;
+            }
+
+            final long deadlineNanos = connection.getLastActivityNanos() + timeoutNanos;
+            if(deadlineNanos - nowNanos <= 0) {
+                metrics.connectionTimedOut();
+                connection.setInIdleWheel(false);
+                connection.close();
+            } else schedule(connection, deadlineNanos);
+        }
+    }
+
+    /**
+     * Obtém o tempo máximo que o reator pode ficar bloqueado aguardando eventos,
+     * para que a roda seja verificada a cada posição.
+     * @return o tempo em milissegundos
+     */
+    long getTickMillis() {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(tickNanos));
+    }
+}
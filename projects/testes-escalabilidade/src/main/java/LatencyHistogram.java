@@ -0,0 +1,176 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latências (em nanossegundos) com intervalos (buckets) em escala logarítmica,
+ * inspirado no <a href="http://hdrhistogram.org">HdrHistogram</a>.
+ *
+ * <p>No lugar de armazenar cada latência medida (o que para milhares de clientes
+ * consome muita memória), apenas contabiliza quantas latências caíram em cada intervalo.
+ * Os valores de 0 a {@link #SUB_BUCKETS}-1 ns têm seu próprio intervalo.
+ * A partir daí, cada potência de 2 é dividida em {@link #SUB_BUCKETS}/2 intervalos de mesmo tamanho,
+ * fazendo com que o erro relativo de qualquer valor registrado seja menor que 1%,
+ * independente de ele ser de alguns microssegundos ou de vários segundos.
+ * O histograma ocupa uma quantidade fixa de memória, e registrar um valor não cria nenhum objeto.</p>
+ *
+ * <p>Os contadores são atômicos, permitindo que diferentes threads registrem valores simultaneamente.
+ * Para evitar a disputa entre threads por tais contadores, cada thread pode ter seu próprio histograma,
+ * sendo todos eles combinados ao final por meio do método {@link #merge(LatencyHistogram)}
+ * (como feito pelo {@link LatencyRecorder}).</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    /**
+     * Número de intervalos necessários para representar qualquer valor positivo de um long.
+     */
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * HALF_SUB_BUCKETS;
+
+    private final AtomicLongArray counts;
+    private final LongAdder totalCount;
+    private final LongAdder totalSum;
+    private final AtomicLong min;
+    private final AtomicLong max;
+
+    LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.totalCount = new LongAdder();
+        this.totalSum = new LongAdder();
+        this.min = new AtomicLong(Long.MAX_VALUE);
+        this.max = new AtomicLong(Long.MIN_VALUE);
+    }
+
+    /**
+     * Registra uma latência.
+     * @param nanos latência em nanossegundos (valores negativos são considerados 0)
+     */
+    void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.increment();
+        totalSum.add(value);
+        updateMin(value);
+        updateMax(value);
+    }
+
+    private void updateMin(final long value) {
+        long current;
+        while(value < (current = min.get()) && !min.compareAndSet(current, value)){
+            //tenta novamente, pois outra thread alterou o mínimo
+        }
+    }
+
+    private void updateMax(final long value) {
+        long current;
+        while(value > (current = max.get()) && !max.compareAndSet(current, value)){
+            //tenta novamente, pois outra thread alterou o máximo
+        }
+    }
+
+    /**
+     * Obtém o índice do intervalo onde um valor deve ser contabilizado.
+     * @param value valor não negativo
+     * @return o índice do intervalo
+     */
+    private static int bucketIndex(final long value) {
+        if(value < SUB_BUCKETS){
+            return (int)value;
+        }
+
+        final int magnitude = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return magnitude * HALF_SUB_BUCKETS + (int)(value >>> magnitude);
+    }
+
+    /**
+     * Obtém o maior valor que pode ser contabilizado em um determinado intervalo.
+     * @param index índice do intervalo
+     * @return o maior valor do intervalo
+     */
+    private static long highestValueInBucket(final int index) {
+        if(index < SUB_BUCKETS){
+            return index;
+        }
+
+        final int magnitude = index / HALF_SUB_BUCKETS - 1;
+        final long subBucket = index - magnitude * HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << magnitude) - 1;
+    }
+
+    /**
+     * Adiciona os valores registrados em outro histograma a este.
+     * @param other histograma cujos valores serão adicionados
+     * @return este histograma
+     */
+    LatencyHistogram merge(final LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            final long count = other.counts.get(i);
+            if(count > 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+
+        totalCount.add(other.totalCount.sum());
+        totalSum.add(other.totalSum.sum());
+        if(other.getCount() > 0) {
+            updateMin(other.min.get());
+            updateMax(other.max.get());
+        }
+
+        return this;
+    }
+
+    /**
+     * Obtém o valor abaixo do qual está um determinado percentual das latências registradas.
+     * @param percentile percentual entre 0 e 100 (como 50 para obter a mediana)
+     * @return a latência (em nanossegundos) do percentil indicado, ou 0 se não há valores registrados
+     */
+    long getValueAtPercentile(final double percentile) {
+        final long count = getCount();
+        if(count == 0){
+            return 0;
+        }
+
+        final long target = Math.max(1, (long)Math.ceil(Math.min(100, percentile) / 100.0 * count));
+        long accumulated = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            accumulated += counts.get(i);
+            if(accumulated >= target){
+                return Math.min(highestValueInBucket(i), getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    long getCount() {
+        return totalCount.sum();
+    }
+
+    long getMin() {
+        return getCount() == 0 ? 0 : min.get();
+    }
+
+    long getMax() {
+        return getCount() == 0 ? 0 : max.get();
+    }
+
+    double getMean() {
+        final long count = getCount();
+        return count == 0 ? 0 : totalSum.sum() / (double)count;
+    }
+
+    /**
+     * Converte um valor em nanossegundos para milissegundos.
+     * @param nanos valor em nanossegundos
+     * @return o valor em milissegundos
+     */
+    static double toMillis(final double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,67 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Registra latências medidas por diferentes threads em {@link LatencyHistogram}s.
+ *
+ * <p>Pode funcionar em dois modos:</p>
+ * <ul>
+ *     <li>compartilhado: todas as threads registram valores em um único histograma;</li>
+ *     <li>por thread: cada thread registra valores no seu próprio histograma,
+ *     evitando a disputa entre threads pelos mesmos contadores.
+ *     Os histogramas de todas as threads são combinados ao obter os resultados.</li>
+ * </ul>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+class LatencyRecorder {
+    private final boolean perThread;
+    private final LatencyHistogram sharedHistogram;
+    private final Queue<LatencyHistogram> threadHistograms;
+    private final ThreadLocal<LatencyHistogram> threadHistogram;
+
+    /**
+     * Instancia um registrador de latências.
+     * @param perThread true para cada thread registrar valores no seu próprio histograma,
+     *                  false para usar um histograma compartilhado
+     */
+    LatencyRecorder(final boolean perThread) {
+        this.perThread = perThread;
+        this.sharedHistogram = perThread ? null : new LatencyHistogram();
+        this.threadHistograms = new ConcurrentLinkedQueue<>();
+        this.threadHistogram = ThreadLocal.withInitial(this::newThreadHistogram);
+    }
+
+    private LatencyHistogram newThreadHistogram() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        threadHistograms.add(histogram);
+        return histogram;
+    }
+
+    /**
+     * Registra uma latência no histograma da thread atual ou no histograma compartilhado.
+     * @param nanos latência em nanossegundos
+     */
+    void record(final long nanos) {
+        if(perThread) {
+            threadHistogram.get().record(nanos);
+        } else sharedHistogram.record(nanos);
+    }
+
+    /**
+     * Obtém um histograma com todas as latências registradas até o momento.
+     * @return um novo histograma combinando os valores registrados por todas as threads
+     */
+    LatencyHistogram getHistogram() {
+        final LatencyHistogram result = new LatencyHistogram();
+        if(!perThread){
+            return result.merge(sharedHistogram);
+        }
+
+        for (final LatencyHistogram histogram : threadHistograms) {
+            result.merge(histogram);
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Distribuição de probabilidade usada para definir o tamanho (em bytes)
+ * do conteúdo das mensagens enviadas nos testes de escalabilidade.
+ *
+ * <p>É definida por uma String em um dos formatos abaixo:</p>
+ * <ul>
+ *     <li>{@code fixed:N}: todas as mensagens têm N bytes;</li>
+ *     <li>{@code uniform:MIN:MAX}: tamanhos uniformemente distribuídos entre MIN e MAX bytes;</li>
+ *     <li>{@code exponential:MEDIA}: tamanhos seguindo uma distribuição exponencial com a média indicada,
+ *     gerando muitas mensagens pequenas e algumas grandes, como numa conversa real.</li>
+ * </ul>
+ *
+ * <p>Os tamanhos gerados são sempre limitados ao intervalo entre um mínimo e um máximo indicados.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+class MessageSizeDistribution {
+    private enum Type { FIXED, UNIFORM, EXPONENTIAL }
+
+    private final String spec;
+    private final Type type;
+    private final int param1;
+    private final int param2;
+    private final int minSize;
+    private final int maxSize;
+
+    /**
+     * Instancia uma distribuição a partir da sua especificação.
+     * @param spec especificação da distribuição, como "uniform:16:1024"
+     * @param minSize tamanho mínimo de qualquer mensagem gerada
+     * @param maxSize tamanho máximo de qualquer mensagem gerada
+     * @throws IllegalArgumentException se a especificação for inválida
+     */
+    MessageSizeDistribution(final String spec, final int minSize, final int maxSize) {
+        final String[] parts = spec.split(":");
+        try {
+            this.spec = spec;
+            this.type = Type.valueOf(parts[0].trim().toUpperCase());
+            this.param1 = Integer.parseInt(parts[1].trim());
+            this.param2 = type == Type.UNIFORM ? Integer.parseInt(parts[2].trim()) : param1;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException(
+                "Distribuição de tamanho de mensagens inválida: " + spec +
+                ". Use fixed:N, uniform:MIN:MAX ou exponential:MEDIA", e);
+        }
+
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gera o tamanho de uma mensagem.
+     * @return o tamanho (em bytes)
+     */
+    int nextSize() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final long size;
+        switch (type) {
+            case UNIFORM: size = param1 + random.nextInt(Math.max(1, param2 - param1 + 1)); break;
+            case EXPONENTIAL: size = Math.round(-param1 * Math.log(1 - random.nextDouble())); break;
+            default: size = param1;
+        }
+
+        return (int)Math.max(minSize, Math.min(maxSize, size));
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
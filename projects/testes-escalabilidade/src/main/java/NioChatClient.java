@@ -0,0 +1,302 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Um cliente de chat simulado pelo {@link NioClientEngine},
+ * que usa um {@link SocketChannel} não bloqueante no lugar de um {@link java.net.Socket}.
+ *
+ * <p>O cliente não possui uma thread própria: a conexão, a leitura e a escrita
+ * são realizadas pela thread do {@link NioClientEngine.Worker} ao qual ele pertence,
+ * que monitora milhares de clientes por meio de um {@link java.nio.channels.Selector}.
+ * Qualquer thread pode enfileirar frames para envio (chamando {@link #send(ByteBuffer)})
+ * sem aguardar a resposta dos frames anteriores, permitindo que várias mensagens
+ * estejam em trânsito ao mesmo tempo (pipelining).</p>
+ *
+ * <p>Se o cliente usar o protocolo WebSocket, a requisição de upgrade é enviada logo após a conexão TCP ser estabelecida,
+ * e a conexão só é considerada concluída quando o servidor aceitar o upgrade.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+class NioChatClient implements Closeable {
+    /**
+     * Número máximo de frames enviados de uma só vez por meio de uma escrita agrupada (gathering write).
+     */
+    private static final int MAX_GATHERING_BUFFERS = 64;
+
+    /**
+     * Vetor usado para montar a lista de frames de uma escrita agrupada,
+     * reutilizado por todos os clientes processados por uma mesma thread.
+     */
+    private static final ThreadLocal<ByteBuffer[]> GATHERING_BUFFERS =
+            ThreadLocal.withInitial(() -> new ByteBuffer[MAX_GATHERING_BUFFERS]);
+
+    /**
+     * Tamanho máximo de um frame recebido, considerando o maior cabeçalho entre os protocolos suportados.
+     */
+    private static final int MAX_FRAME_LENGTH = WebSocketCodec.MAX_HEADER_LENGTH + FrameCodec.MAX_PAYLOAD_LENGTH;
+
+    private final NioClientEngine.Worker worker;
+    private final SocketChannel channel;
+    private final Queue<ByteBuffer> outboundQueue;
+    private final AtomicBoolean flushScheduled;
+    private final AtomicBoolean closed;
+
+    /**
+     * Endereço do servidor incluído na requisição de upgrade para WebSocket,
+     * ou null se o cliente não usa tal protocolo.
+     */
+    private final String websocketHost;
+
+    /**
+     * Chave enviada na requisição de upgrade para WebSocket, usada para verificar a resposta do servidor.
+     */
+    private String handshakeKey;
+
+    /**
+     * Concluído quando a conexão com o servidor é estabelecida ou falha.
+     */
+    private final CompletableFuture<NioChatClient> connected;
+
+    /**
+     * Chave do canal no {@link java.nio.channels.Selector} do worker,
+     * definida pela thread do worker ao registrar o canal.
+     */
+    private volatile SelectionKey key;
+
+    /**
+     * Buffer (pronto para escrita) contendo os bytes de um frame recebido parcialmente,
+     * ou null se não há frame incompleto.
+     */
+    private ByteBuffer partialFrame;
+
+    /**
+     * Instancia um cliente.
+     * @param worker worker que vai processar os eventos do cliente
+     * @param channel canal do cliente
+     * @param websocketHost endereço do servidor (host:porta) a ser incluído na requisição de upgrade para WebSocket,
+     *                      ou null se o cliente não usa tal protocolo
+     */
+    NioChatClient(final NioClientEngine.Worker worker, final SocketChannel channel, final String websocketHost) {
+        this.worker = worker;
+        this.channel = channel;
+        this.websocketHost = websocketHost;
+        this.outboundQueue = new ConcurrentLinkedQueue<>();
+        this.flushScheduled = new AtomicBoolean();
+        this.closed = new AtomicBoolean();
+        this.connected = new CompletableFuture<>();
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void setKey(final SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Aguarda até que a conexão com o servidor seja estabelecida.
+     * @param timeoutMs tempo máximo de espera (em milissegundos)
+     * @throws IOException se não foi possível conectar dentro do tempo indicado
+     */
+    void awaitConnected(final long timeoutMs) throws IOException {
+        try {
+            connected.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            close();
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            close();
+            throw new IOException("Tempo esgotado ao conectar no servidor", e);
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new IOException("Conexão interrompida", e);
+        }
+    }
+
+    /**
+     * Indica que a conexão foi estabelecida, passando a monitorar a chegada de dados
+     * e enviando os frames que foram enfileirados enquanto a conexão não era concluída.
+     * Se o cliente usa WebSocket, envia a requisição de upgrade e aguarda a resposta do servidor.
+     * Chamado pela thread do worker.
+     */
+    void onConnected() throws IOException {
+        key.interestOps(SelectionKey.OP_READ);
+        if(websocketHost != null) {
+            handshakeKey = WebSocketCodec.newHandshakeKey();
+            outboundQueue.add(WebSocketCodec.newHandshakeRequest(websocketHost, handshakeKey));
+        } else connected.complete(this);
+        flush();
+    }
+
+    /**
+     * Verifica se o cliente ainda aguarda a resposta do servidor à requisição de upgrade para WebSocket.
+     */
+    boolean isHandshakePending() {
+        return websocketHost != null && !connected.isDone();
+    }
+
+    String getHandshakeKey() {
+        return handshakeKey;
+    }
+
+    /**
+     * Indica que o servidor aceitou o upgrade para WebSocket, concluindo a conexão
+     * e enviando os frames que foram enfileirados enquanto ela não era concluída.
+     * Chamado pela thread do worker.
+     */
+    void onHandshakeCompleted() throws IOException {
+        connected.complete(this);
+        flush();
+    }
+
+    /**
+     * Indica que não foi possível estabelecer a conexão. Chamado pela thread do worker.
+     * @param e exceção que impediu a conexão
+     */
+    void onConnectFailed(final IOException e) {
+        connected.completeExceptionally(e);
+        close();
+    }
+
+    /**
+     * Enfileira um frame para ser enviado ao servidor pela thread do worker.
+     * Pode ser chamado por qualquer thread, sem aguardar a resposta de frames enviados anteriormente.
+     * @param frame frame a ser enviado
+     * @return true se o frame foi enfileirado, false se o cliente já foi fechado
+     */
+    boolean send(final ByteBuffer frame) {
+        if(closed.get()){
+            return false;
+        }
+
+        outboundQueue.add(frame);
+        if(connected.isDone() && flushScheduled.compareAndSet(false, true)) {
+            worker.scheduleFlush(this);
+        }
+
+        return true;
+    }
+
+    /**
+     * Envia ao servidor o máximo possível de frames enfileirados, sem bloquear.
+     * Se o canal não aceitar todos os dados, passa a monitorar o evento {@link SelectionKey#OP_WRITE}
+     * para continuar o envio quando o canal estiver pronto. Chamado pela thread do worker.
+     */
+    void flush() throws IOException {
+        flushScheduled.set(false);
+        if(closed.get()){
+            return;
+        }
+
+        final ByteBuffer[] buffers = GATHERING_BUFFERS.get();
+        try {
+            while (true) {
+                int count = 0;
+                for (final ByteBuffer frame : outboundQueue) {
+                    buffers[count++] = frame;
+                    if (count == buffers.length) {
+                        break;
+                    }
+                }
+
+                if (count == 0) {
+                    setWriteInterest(false);
+                    return;
+                }
+
+                channel.write(buffers, 0, count);
+                for (int i = 0; i < count; i++) {
+                    if (buffers[i].hasRemaining()) {
+                        //O buffer de envio do SO está cheio: aguarda o canal estar pronto para escrita.
+                        setWriteInterest(true);
+                        return;
+                    }
+                    outboundQueue.poll();
+                }
+            }
+        } finally {
+            //Remove as referências aos frames, permitindo que sejam coletados pelo Garbage Collector
+            Arrays.fill(buffers, null);
+        }
+    }
+
+    private void setWriteInterest(final boolean enabled) {
+        if(key == null || !key.isValid()){
+            return;
+        }
+
+        final int ops = key.interestOps();
+        final int newOps = enabled ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE;
+        if(newOps != ops) {
+            key.interestOps(newOps);
+        }
+    }
+
+    /**
+     * Obtém o buffer contendo um frame recebido parcialmente, para que o restante dele seja lido.
+     * @return o buffer pronto para escrita ou null se não há frame incompleto
+     */
+    ByteBuffer getPartialFrame() {
+        return partialFrame;
+    }
+
+    /**
+     * Armazena os bytes ainda não processados de um buffer de leitura,
+     * que representam o início de um frame ainda não totalmente recebido.
+     * Se o buffer não for o próprio {@link #getPartialFrame()},
+     * os bytes são copiados, pois o buffer de leitura é compartilhado por todos os clientes do worker.
+     *
+     * @param buffer buffer de leitura, pronto para ser lido
+     */
+    void savePartialFrame(final ByteBuffer buffer) {
+        if(!buffer.hasRemaining()){
+            partialFrame = null;
+            return;
+        }
+
+        if(buffer == partialFrame){
+            partialFrame.compact();
+            return;
+        }
+
+        partialFrame = ByteBuffer.allocate(MAX_FRAME_LENGTH);
+        partialFrame.put(buffer);
+    }
+
+    boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Encerra a conexão com o servidor. Pode ser chamado por qualquer thread.
+     */
+    @Override
+    public void close() {
+        if(!closed.compareAndSet(false, true)){
+            return;
+        }
+
+        if(key != null) {
+            key.cancel();
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+        }
+        outboundQueue.clear();
+    }
+}
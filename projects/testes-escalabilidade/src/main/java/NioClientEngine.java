@@ -0,0 +1,333 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Motor de E/S não bloqueante usado pelos testes de escalabilidade para simular
+ * um grande número de clientes de chat ({@link NioChatClient}) com poucas threads.
+ *
+ * <p>Ao usar um {@link java.net.Socket} bloqueante por cliente, o próprio gerador de carga
+ * atinge o limite de threads e memória muito antes do servidor.
+ * Aqui, os canais dos clientes são distribuídos em round-robin entre alguns {@link Worker}s,
+ * cada um com seu próprio {@link Selector} e sua própria thread,
+ * assim como os reatores do {@link NonBlockingChatServer}.
+ * A conexão é feita de forma não bloqueante (monitorando o evento {@link SelectionKey#OP_CONNECT})
+ * e as mensagens recebidas do servidor são repassadas a um {@link BiConsumer} indicado no construtor.</p>
+ *
+ * <p>Os clientes podem usar os frames definidos pelo {@link FrameCodec} ou o protocolo WebSocket
+ * (veja {@link WebSocketCodec}). Neste último caso, os frames a serem enviados
+ * devem ser codificados por {@link WebSocketCodec#encodeMasked(int, ByteBuffer)}.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+class NioClientEngine implements Closeable {
+    /**
+     * Tamanho do buffer usado por cada worker para ler os dados recebidos por todos os seus clientes.
+     */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Worker[] workers;
+    private final AtomicInteger nextWorkerIndex;
+    private final BiConsumer<NioChatClient, ByteBuffer> messageListener;
+
+    /**
+     * Indica se os clientes usam o protocolo WebSocket.
+     */
+    private final boolean websocket;
+
+    /**
+     * Instancia e inicia o motor de E/S, cujos clientes usam os frames definidos pelo {@link FrameCodec}.
+     * @param workersCount número de workers (threads com seu próprio {@link Selector})
+     * @param messageListener recebe o cliente e o conteúdo (sem o cabeçalho) de cada frame recebido do servidor.
+     *                        É chamado pela thread do worker e o buffer recebido não deve ser armazenado.
+     */
+    NioClientEngine(final int workersCount, final BiConsumer<NioChatClient, ByteBuffer> messageListener) throws IOException {
+        this(workersCount, false, messageListener);
+    }
+
+    /**
+     * Instancia e inicia o motor de E/S.
+     * @param workersCount número de workers (threads com seu próprio {@link Selector})
+     * @param websocket indica se os clientes usam o protocolo WebSocket
+     * @param messageListener recebe o cliente e o conteúdo (sem o cabeçalho) de cada frame de dados recebido do servidor.
+     *                        É chamado pela thread do worker e o buffer recebido não deve ser armazenado.
+     */
+    NioClientEngine(final int workersCount, final boolean websocket, final BiConsumer<NioChatClient, ByteBuffer> messageListener) throws IOException {
+        this.messageListener = messageListener;
+        this.websocket = websocket;
+        this.nextWorkerIndex = new AtomicInteger();
+        this.workers = new Worker[Math.max(1, workersCount)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Inicia, de forma não bloqueante, a conexão de um novo cliente com o servidor.
+     * @param address endereço do servidor
+     * @param localAddress endereço IP local ao qual a conexão deve ser vinculada,
+     *                     ou null para o SO escolher o endereço de origem
+     * @return o cliente criado, cuja conexão pode ser aguardada por meio de {@link NioChatClient#awaitConnected(long)}
+     */
+    NioChatClient connect(final InetSocketAddress address, final InetAddress localAddress) throws IOException {
+        final SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            if(localAddress != null) {
+                channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                channel.bind(new InetSocketAddress(localAddress, 0));
+            }
+            channel.connect(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        final Worker worker = workers[Math.floorMod(nextWorkerIndex.getAndIncrement(), workers.length)];
+        final String websocketHost = websocket ? address.getHostString() + ":" + address.getPort() : null;
+        final NioChatClient client = new NioChatClient(worker, channel, websocketHost);
+        worker.register(client);
+        return client;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (final Worker worker : workers) {
+            worker.close();
+        }
+    }
+
+    /**
+     * Um loop de eventos que processa a conexão, leitura e escrita de um subconjunto dos clientes.
+     * Os clientes a serem registrados e os que possuem frames a serem enviados são enfileirados
+     * por outras threads e processados pela thread do worker,
+     * que é acordada por meio de {@link Selector#wakeup()}.
+     */
+    final class Worker implements Runnable, Closeable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<NioChatClient> pendingClients;
+        private final Queue<NioChatClient> pendingFlushes;
+        private final AtomicBoolean wakeupRequested;
+
+        /**
+         * Buffer onde são lidos os dados recebidos por todos os clientes do worker,
+         * evitando manter um buffer de leitura por cliente.
+         */
+        private final ByteBuffer readBuffer;
+        private volatile boolean running;
+
+        private Worker(final int id) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-client-" + id);
+            this.thread.setDaemon(true);
+            this.pendingClients = new ConcurrentLinkedQueue<>();
+            this.pendingFlushes = new ConcurrentLinkedQueue<>();
+            this.wakeupRequested = new AtomicBoolean();
+            this.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        }
+
+        private void start() {
+            running = true;
+            thread.start();
+        }
+
+        private void register(final NioChatClient client) {
+            pendingClients.add(client);
+            wakeup();
+        }
+
+        /**
+         * Agenda o envio dos frames enfileirados para um cliente.
+         * @param client cliente com frames a serem enviados
+         */
+        void scheduleFlush(final NioChatClient client) {
+            pendingFlushes.add(client);
+            if(Thread.currentThread() != thread) {
+                wakeup();
+            }
+        }
+
+        private void wakeup() {
+            if(wakeupRequested.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            while(running) {
+                try {
+                    selector.select();
+                    wakeupRequested.set(false);
+                    registerPendingClients();
+                    processEvents(selector.selectedKeys());
+                    flushPendingClients();
+                } catch (ClosedSelectorException e){
+                    return;
+                } catch (IOException e){
+                    System.err.println("Erro ao selecionar eventos: " + e.getMessage());
+                }
+            }
+        }
+
+        private void registerPendingClients() {
+            NioChatClient client;
+            while((client = pendingClients.poll()) != null) {
+                final SocketChannel channel = client.getChannel();
+                try {
+                    final boolean connected = channel.isConnected();
+                    client.setKey(channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, client));
+                    if(connected) {
+                        client.onConnected();
+                    }
+                } catch (IOException e) {
+                    client.onConnectFailed(e);
+                }
+            }
+        }
+
+        private void flushPendingClients() {
+            NioChatClient client;
+            while((client = pendingFlushes.poll()) != null) {
+                try {
+                    client.flush();
+                } catch (IOException e) {
+                    client.close();
+                }
+            }
+        }
+
+        private void processEvents(final Set<SelectionKey> selectionKeys) {
+            for (final SelectionKey key : selectionKeys) {
+                processEvent(key);
+            }
+            selectionKeys.clear();
+        }
+
+        private void processEvent(final SelectionKey key) {
+            if (!key.isValid()) {
+                return;
+            }
+
+            final NioChatClient client = (NioChatClient) key.attachment();
+            if(key.isConnectable()){
+                try {
+                    client.getChannel().finishConnect();
+                    client.onConnected();
+                } catch (IOException e) {
+                    client.onConnectFailed(e);
+                }
+                return;
+            }
+
+            try {
+                if(key.isWritable()){
+                    client.flush();
+                }
+
+                if(key.isValid() && key.isReadable()){
+                    processRead(client);
+                }
+            } catch (IOException e) {
+                if(client.isHandshakePending()) {
+                    client.onConnectFailed(e);
+                } else client.close();
+            }
+        }
+
+        /**
+         * Lê os dados recebidos por um cliente e repassa cada frame completo para o {@link #messageListener}.
+         * @param client cliente que recebeu dados
+         */
+        private void processRead(final NioChatClient client) throws IOException {
+            final ByteBuffer partialFrame = client.getPartialFrame();
+            final ByteBuffer buffer = partialFrame == null ? readBuffer : partialFrame;
+            if(buffer == readBuffer) {
+                //O cast para Buffer evita erro ao executar em Java 8 um código compilado em versões posteriores.
+                ((Buffer)buffer).clear();
+            }
+
+            final int bytesRead = client.getChannel().read(buffer);
+            if(bytesRead == -1){
+                client.close();
+                return;
+            }
+
+            ((Buffer)buffer).flip();
+            try {
+                if(client.isHandshakePending()) {
+                    if(!WebSocketCodec.checkHandshakeResponse(buffer, client.getHandshakeKey())) {
+                        client.savePartialFrame(buffer);
+                        return;
+                    }
+                    client.onHandshakeCompleted();
+                }
+
+                ByteBuffer msg;
+                while((msg = nextMessage(client, buffer)) != null) {
+                    messageListener.accept(client, msg);
+                }
+            } catch (ProtocolException e) {
+                throw new IOException("Mensagem inválida recebida: " + e.getMessage(), e);
+            }
+            client.savePartialFrame(buffer);
+        }
+
+        /**
+         * Obtém o conteúdo da próxima mensagem completa recebida por um cliente.
+         * Com WebSocket, responde aos pings do servidor e encerra o cliente quando o servidor encerra a conexão,
+         * retornando apenas o conteúdo dos frames de dados.
+         * @return o conteúdo da mensagem ou null se não há mensagem completa
+         */
+        private ByteBuffer nextMessage(final NioChatClient client, final ByteBuffer buffer) throws ProtocolException {
+            if(!websocket) {
+                return FrameCodec.nextFrame(buffer);
+            }
+
+            while(true) {
+                final int framePosition = buffer.position();
+                final ByteBuffer payload = WebSocketCodec.nextFrame(buffer);
+                if(payload == null){
+                    return null;
+                }
+
+                switch (WebSocketCodec.getOpcode(buffer, framePosition)) {
+                    case WebSocketCodec.OP_TEXT:
+                    case WebSocketCodec.OP_BINARY:
+                        return payload;
+                    case WebSocketCodec.OP_PING:
+                        client.send(WebSocketCodec.encodeMasked(WebSocketCodec.OP_PONG, payload));
+                        break;
+                    case WebSocketCodec.OP_CLOSE:
+                        client.close();
+                        return null;
+                    default:
+                        //Frames pong (respostas a pings) são ignorados.
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            running = false;
+            selector.close();
+        }
+    }
+}
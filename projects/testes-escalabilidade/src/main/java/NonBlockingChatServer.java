@@ -1,31 +1,126 @@
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Servidor de chat não bloqueante utilizando a API NIO.2 do Java 7.
  *
+ * <p>O servidor pode funcionar em dois modos, definidos pela propriedade {@code chat.reactors}:</p>
+ * <ul>
+ *     <li>reator único ({@code -Dchat.reactors=0}): um único {@link Selector} é usado tanto para aceitar
+ *     conexões quanto para ler mensagens, sendo os eventos selecionados processados em paralelo
+ *     por meio de uma parallel stream (que utiliza o ForkJoinPool comum);</li>
+ *     <li>multi-reator (padrão): uma thread aceitadora (boss/acceptor) apenas aceita conexões
+ *     e as repassa em round-robin a N reatores ({@link ChatReactor}),
+ *     cada um com seu próprio {@link Selector} e sua própria thread.
+ *     Por padrão, é criado um reator para cada núcleo de CPU.</li>
+ * </ul>
+ *
+ * <p>A cada evento de nova conexão, são aceitas todas as conexões pendentes (até {@code chat.accept.batch}),
+ * reduzindo o número de chamadas a {@link Selector#select()} quando muitos clientes conectam ao mesmo tempo.
+ * Se o limite de arquivos abertos for atingido, o servidor usa um descritor de arquivo reservado
+ * para aceitar e fechar imediatamente uma conexão pendente (avisando o cliente, no lugar de deixá-lo aguardando)
+ * e para de aceitar conexões por {@code chat.accept.pauseMs} milissegundos, voltando a aceitá-las em seguida.</p>
+ *
+ * <p>Com {@code -Dchat.websocket=true}, os clientes se comunicam com o servidor por meio do protocolo WebSocket
+ * (veja {@link WebSocketCodec}), no lugar dos frames definidos pelo {@link FrameCodec}.
+ * O upgrade HTTP e a decodificação dos frames são feitos pelos próprios reatores,
+ * permitindo comparar o desempenho dos dois protocolos com a mesma arquitetura de servidor.</p>
+ *
  * @author Manoel Campos da Silva Filho
  * @see <a href="https://www.baeldung.com/java-nio-selector">Java NIO Selector</a>
  * @see <a href="https://www.apress.com/us/book/9781430240112">Pro Java 7 NIO.2</a>
  * @see <a href="http://tutorials.jenkov.com/java-nio/">Java NIO Tutorial</a>
  */
 public class NonBlockingChatServer extends ChatServerAbstract {
+    /**
+     * Número de reatores que vão processar as mensagens dos clientes.
+     * Se for 0, o servidor funciona no modo de reator único.
+     */
+    private static final int REACTORS = Config.getInt("chat.reactors", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Indica se os clientes se comunicam com o servidor por meio do protocolo WebSocket.
+     */
+    static final boolean WEBSOCKET = Config.getBoolean("chat.websocket", false);
+
+    /**
+     * Tamanho (em bytes) de cada buffer usado para ler e enviar as mensagens dos clientes.
+     * Se for menor que o maior frame possível, é usado o tamanho de tal frame.
+     */
+    private static final int BUFFER_SIZE = Config.getInt("chat.buffer.size", 1200);
+
+    /**
+     * Total máximo de memória (em MB) que pode ser alocada fora do heap para os buffers de leitura e escrita.
+     */
+    private static final long BUFFER_POOL_MAX_MEMORY_MB = Config.getLong("chat.buffer.maxMemoryMB", 64);
+
+    /**
+     * Número máximo de conexões aceitas a cada evento de nova conexão.
+     */
+    private static final int ACCEPT_BATCH = Math.max(1, Config.getInt("chat.accept.batch", 256));
+
+    /**
+     * Tempo (em milissegundos) que o servidor deixa de aceitar conexões após uma falha
+     * (como atingir o limite de arquivos abertos).
+     */
+    private static final long ACCEPT_PAUSE_MS = Config.getLong("chat.accept.pauseMs", 100);
+
+    private static final boolean TCP_NO_DELAY = Config.getBoolean("chat.socket.tcpNoDelay", true);
+
+    /**
+     * Permite reiniciar o servidor nas mesmas portas enquanto conexões anteriores
+     * ainda estão no estado TIME_WAIT.
+     */
+    private static final boolean REUSE_ADDRESS = Config.getBoolean("chat.socket.reuseAddress", true);
+
+    /**
+     * Tamanhos (em bytes) dos buffers de recebimento e envio do SO para cada conexão.
+     * Se for 0, é usado o padrão do SO.
+     */
+    private static final int RECEIVE_BUFFER_SIZE = Config.getInt("chat.socket.receiveBufferKB", 0) * 1024;
+    private static final int SEND_BUFFER_SIZE = Config.getInt("chat.socket.sendBufferKB", 0) * 1024;
+
     private final Selector selector;
-    private final ServerSocketChannel serverChannel;
-    private boolean outOfResources;
+    private final ServerSocketChannel[] serverChannels;
+    private final SelectionKey[] serverKeys;
+    private final ChatReactor[] reactors;
+    private final ByteBufferPool bufferPool;
+
+    /**
+     * Índice do reator, dentro de {@link #reactors}, que vai receber a próxima conexão aceita.
+     * Só é acessado pela thread aceitadora.
+     */
+    private int nextReactorIndex;
+
+    /**
+     * Descritor de arquivo mantido aberto apenas para ser liberado quando o limite de arquivos abertos
+     * for atingido, permitindo aceitar e fechar uma conexão pendente. Pode ser null se não pôde ser reaberto.
+     */
+    private Closeable reserveDescriptor;
+
+    /**
+     * Instante (obtido por {@link System#nanoTime()}) até o qual o servidor não aceita novas conexões,
+     * ou 0 se as conexões estão sendo aceitas normalmente.
+     * No modo de reator único, as falhas podem ser tratadas pelas threads da parallel stream.
+     */
+    private volatile long acceptPausedUntilNanos;
 
     public static void main(String[] args) {
         System.setProperty("java.util.concurrent.ForkJoinPool.common.parallelism", "10");
-        System.out.printf("CPUs: %d | Max Threads usadas por Streams do Java 8: %s\n\n",
+        System.out.printf("CPUs: %d | Max Threads usadas por Streams do Java 8: %s | Reatores: %d\n\n",
                 Runtime.getRuntime().availableProcessors(),
-                System.getProperty("java.util.concurrent.ForkJoinPool.common.parallelism"));
+                System.getProperty("java.util.concurrent.ForkJoinPool.common.parallelism"),
+                REACTORS);
 
         try(final NonBlockingChatServer server = new NonBlockingChatServer()) {
             server.start();
@@ -39,32 +134,97 @@ public class NonBlockingChatServer extends ChatServerAbstract {
         super();
         try {
             selector = Selector.open();
-            serverChannel = ServerSocketChannel.open();
-            serverChannel.configureBlocking(false);
+            serverChannels = new ServerSocketChannel[PORTS];
+            serverKeys = new SelectionKey[PORTS];
+            for (int i = 0; i < PORTS; i++) {
+                serverChannels[i] = openServerChannel(getPort(i));
+                serverKeys[i] = serverChannels[i].keyFor(selector);
+            }
 
-            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
-            serverChannel.bind(new InetSocketAddress(PORT), MAX_PENDING_CONNECTIONS);
-            System.out.println("Servidor de chat não-bloqueante iniciado no endereço " + new InetSocketAddress(PORT));
+            reserveDescriptor = openReserveDescriptor();
+            //Cada buffer deve comportar um frame completo, pois também guarda os frames recebidos parcialmente.
+            final int maxHeaderLength = WEBSOCKET ? WebSocketCodec.MAX_HEADER_LENGTH : FrameCodec.HEADER_LENGTH;
+            final int bufferSize = Math.max(BUFFER_SIZE, maxHeaderLength + FrameCodec.MAX_PAYLOAD_LENGTH);
+            bufferPool = new ByteBufferPool(bufferSize, BUFFER_POOL_MAX_MEMORY_MB * 1024 * 1024);
+            reactors = createReactors();
+            publishMetrics();
+            System.out.println(
+                "Servidor de chat não-bloqueante iniciado no endereço " + new InetSocketAddress(PORT) +
+                (PORTS > 1 ? " (portas " + PORT + " a " + getPort(PORTS - 1) + ")" : "") +
+                (WEBSOCKET ? " usando WebSocket" : ""));
         } catch (IOException e) {
             throw new IOException("Erro ao iniciar servidor: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Abre um canal para aceitar conexões em uma determinada porta,
+     * registrando-o no {@link Selector} da thread aceitadora.
+     * @param port porta onde o servidor vai aceitar conexões
+     * @return o canal aberto
+     */
+    private ServerSocketChannel openServerChannel(final int port) throws IOException {
+        final ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, REUSE_ADDRESS);
+        if(RECEIVE_BUFFER_SIZE > 0) {
+            //Definido antes do bind, para que as conexões aceitas possam negociar janelas TCP maiores que 64 KB.
+            serverChannel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+        }
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        serverChannel.bind(new InetSocketAddress(port), MAX_PENDING_CONNECTIONS);
+        return serverChannel;
+    }
+
+    private ChatReactor[] createReactors() throws IOException {
+        if(!isMultiReactor()){
+            return new ChatReactor[]{new ChatReactor(this, selector)};
+        }
+
+        final ChatReactor[] reactors = new ChatReactor[REACTORS];
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new ChatReactor(this, i);
+        }
+        return reactors;
+    }
+
+    private boolean isMultiReactor() {
+        return REACTORS > 0;
+    }
+
     private void start() {
+        for (final ChatReactor reactor : reactors) {
+            reactor.start();
+        }
+
         System.out.println("Aguardando conexões de clientes...");
         while(true) {
             try {
-                selector.select();
+                selector.select(getSelectTimeoutMillis());
             } catch (IOException e){
                 LOGGER.severe("Erro ao selecionar eventos: " + e.getMessage());
             }
 
+            final long startNanos = System.nanoTime();
+            resumeAcceptingIfDue(startNanos);
+            final int events = selector.selectedKeys().size();
             processEvents(selector.selectedKeys());
+            if(!isMultiReactor()) {
+                //No modo multi-reator, as iterações são contabilizadas pelos próprios reatores.
+                reactors[0].expireIdleConnections(startNanos);
+                reactors[0].recycleClosedConnections();
+                metrics.selectLoop(events, System.nanoTime() - startNanos);
+            }
         }
     }
 
     private void processEvents(final Set<SelectionKey> selectionKeys) {
-        selectionKeys.stream().parallel().forEach(this::processEvent);
+        if(isMultiReactor()) {
+            //O selector da thread aceitadora só monitora eventos de novas conexões.
+            selectionKeys.forEach(this::processEvent);
+        }
+        else selectionKeys.stream().parallel().forEach(this::processEvent);
+
         selectionKeys.clear();
     }
 
@@ -73,70 +233,188 @@ public class NonBlockingChatServer extends ChatServerAbstract {
             return;
         }
 
-        try{
-            if (key.isAcceptable()) {
-                processConnectionAccept(key, selector);
+        if (!key.isAcceptable()) {
+            reactors[0].processEvent(key);
+            return;
+        }
+
+        processConnectionAccept(key);
+    }
+
+    /**
+     * Obtém o tempo máximo que o {@link Selector} da thread aceitadora pode ficar bloqueado aguardando eventos.
+     * No modo de reator único, tal selector é compartilhado e as conexões ociosas precisam ser verificadas periodicamente.
+     * Se a aceitação de conexões estiver pausada, a thread precisa acordar para retomá-la.
+     * @return o tempo em milissegundos ou 0 para aguardar indefinidamente
+     */
+    private long getSelectTimeoutMillis() {
+        final long reactorTimeout = isMultiReactor() ? 0 : reactors[0].getSelectTimeoutMillis();
+        if(acceptPausedUntilNanos == 0){
+            return reactorTimeout;
+        }
+
+        final long pauseMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(acceptPausedUntilNanos - System.nanoTime()));
+        return reactorTimeout == 0 ? pauseMillis : Math.min(reactorTimeout, pauseMillis);
+    }
+
+    /**
+     * Aceita as conexões pendentes em uma das portas do servidor (até {@link #ACCEPT_BATCH}),
+     * repassando cada uma a um dos reatores.
+     * @param key chave do canal que aceita conexões
+     */
+    private void processConnectionAccept(final SelectionKey key) {
+        final ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
+        for (int i = 0; i < ACCEPT_BATCH; i++) {
+            final SocketChannel clientChannel;
+            try {
+                clientChannel = serverChannel.accept();
+            } catch (IOException e) {
+                onAcceptFailure(serverChannel, e);
+                return;
+            }
+
+            if(clientChannel == null){
+                return;
             }
-            else if(key.isReadable()){
-                processRead(key);
+
+            try {
+                configureClientChannel(clientChannel);
+                metrics.connectionAccepted();
+                nextReactor().register(clientChannel);
+            } catch (IOException e) {
+                LOGGER.severe("Erro ao configurar conexão de cliente: " + e.getMessage());
+                closeQuietly(clientChannel);
             }
-        }catch(IOException e){
-            LOGGER.severe("Erro ao processar evento: " + e.getMessage());
         }
     }
 
-    private void processConnectionAccept(final SelectionKey key, final Selector selector) throws IOException {
-        try {
-            SocketChannel clientChannel = serverChannel.accept();
-            clientChannel.configureBlocking(false);
-            clientChannel.register(selector, SelectionKey.OP_READ);
-            outOfResources = false;
-        } catch (IOException e) {
-            outOfResources = true;
-            key.cancel();
-            throw e;
+    private void configureClientChannel(final SocketChannel clientChannel) throws IOException {
+        clientChannel.configureBlocking(false);
+        clientChannel.setOption(StandardSocketOptions.TCP_NODELAY, TCP_NO_DELAY);
+        if(RECEIVE_BUFFER_SIZE > 0) {
+            clientChannel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+        }
+
+        if(SEND_BUFFER_SIZE > 0) {
+            clientChannel.setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Trata uma falha ao aceitar conexões, que normalmente ocorre quando o limite de arquivos abertos é atingido.
+     * Neste caso, as conexões pendentes continuariam gerando eventos que não podem ser atendidos,
+     * mantendo a thread aceitadora ocupada. Por isso, o descritor reservado é liberado para aceitar
+     * e fechar imediatamente uma conexão pendente (avisando tal cliente que ele não será atendido)
+     * e a aceitação de conexões é pausada por {@link #ACCEPT_PAUSE_MS}, até que algum cliente desconecte.
+     * O canal continua registrado no {@link Selector}, permitindo retomar a aceitação de conexões.
+     *
+     * @param serverChannel canal que não conseguiu aceitar uma conexão
+     * @param e erro ocorrido
+     */
+    private synchronized void onAcceptFailure(final ServerSocketChannel serverChannel, final IOException e) {
+        LOGGER.severe("Erro ao aceitar conexão: " + e.getMessage() + ". Novas conexões pausadas por " + ACCEPT_PAUSE_MS + " ms");
+        if(reserveDescriptor != null) {
+            closeQuietly(reserveDescriptor);
+            try {
+                final SocketChannel rejected = serverChannel.accept();
+                if(rejected != null) {
+                    closeQuietly(rejected);
+                }
+            } catch (IOException ex) {
+                LOGGER.severe("Erro ao recusar conexão pendente: " + ex.getMessage());
+            }
+            reserveDescriptor = openReserveDescriptor();
+        }
+
+        pauseAccepting();
+    }
+
+    private void pauseAccepting() {
+        metrics.acceptPaused();
+        acceptPausedUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ACCEPT_PAUSE_MS);
+        for (final SelectionKey serverKey : serverKeys) {
+            serverKey.interestOps(0);
         }
     }
 
-    private void processRead(final SelectionKey key) throws IOException {
-        if(outOfResources){
+    private synchronized void resumeAcceptingIfDue(final long nowNanos) {
+        if(acceptPausedUntilNanos == 0 || acceptPausedUntilNanos - nowNanos > 0){
             return;
         }
 
-        final SocketChannel clientChannel = (SocketChannel) key.channel();
+        acceptPausedUntilNanos = 0;
+        for (final SelectionKey serverKey : serverKeys) {
+            serverKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
+
+        if(reserveDescriptor == null) {
+            reserveDescriptor = openReserveDescriptor();
+        }
+    }
 
-        final ByteBuffer buffer = ByteBuffer.allocate(1200);
-        int bytesRead;
+    /**
+     * Abre o descritor de arquivo reservado para quando o limite de arquivos abertos for atingido.
+     * @return o descritor aberto ou null se o limite ainda está sendo atingido
+     */
+    private static Closeable openReserveDescriptor() {
         try {
-            /*Está dando erro  ao compilar com Java 11 (com target Java 8)
-            ao executar no Java 8 em outra máquina. Por esse
-            motivo, o buffer foi declarado localmente para não permitir reuso
-            (que iria requerer o clear)*/
-            //buffer.clear();
-            bytesRead = clientChannel.read(buffer);
+            return DatagramChannel.open();
         } catch (IOException e) {
-            key.cancel();
-            clientChannel.close();
-            throw new IOException("Não foi possível ler dados recebidos: " + e.getMessage(), e);
+            return null;
         }
+    }
 
-        if(bytesRead == 0){
-            return;
+    private static void closeQuietly(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
         }
+    }
 
-        if(bytesRead == -1){
-            key.cancel();
-            return;
-        }
+    /**
+     * Obtém o próximo reator para onde uma nova conexão será repassada,
+     * como se o vetor de reatores fosse uma lista circular.
+     * @return o reator selecionado
+     */
+    private ChatReactor nextReactor() {
+        final ChatReactor reactor = reactors[nextReactorIndex];
+        nextReactorIndex = (nextReactorIndex + 1) % reactors.length;
+        return reactor;
+    }
 
-        buffer.flip();
-        byte[] data = new byte[bytesRead];
-        buffer.get(data);
+    /**
+     * Codifica uma mensagem a ser enviada aos clientes como um frame binário do WebSocket,
+     * caso o servidor esteja usando tal protocolo.
+     * @param msg {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    protected ByteBuffer encode(final ByteBuffer msg) {
+        return WEBSOCKET ? WebSocketCodec.encode(WebSocketCodec.OP_BINARY, msg) : super.encode(msg);
+    }
+
+    /**
+     * Obtém o pool de buffers diretos usados para ler as mensagens dos clientes,
+     * que fornece contadores para monitoramento do uso de tais buffers.
+     */
+    ByteBufferPool getBufferPool() {
+        return bufferPool;
     }
 
     @Override
     public void close() throws IOException {
+        System.out.println(bufferPool);
+        System.out.println(metrics);
+        metrics.close();
+        for (final ChatReactor reactor : reactors) {
+            reactor.close();
+        }
         selector.close();
-        serverChannel.close();
+        for (final ServerSocketChannel serverChannel : serverChannels) {
+            serverChannel.close();
+        }
+        if(reserveDescriptor != null) {
+            reserveDescriptor.close();
+        }
     }
 }
@@ -0,0 +1,135 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Executa tarefas em instantes pré-definidos, independente do tempo que as tarefas anteriores levaram,
+ * gerando uma carga em malha aberta (open-loop).
+ *
+ * <p>Em um gerador de carga em malha fechada (closed-loop), cada nova requisição só é enviada
+ * após a anterior terminar. Assim, quando o servidor fica lento, o gerador também fica,
+ * enviando menos requisições justamente quando o servidor está sobrecarregado.
+ * As requisições que deixaram de ser enviadas não têm sua latência medida,
+ * escondendo os picos de latência (problema conhecido como <i>coordinated omission</i>).</p>
+ *
+ * <p>Aqui, os instantes em que cada tarefa deve ser executada são calculados antes do início do teste
+ * (veja {@link #constantRate(int, double)}). Cada tarefa recebe o instante em que deveria ter iniciado,
+ * permitindo medir a latência a partir de tal instante, e não de quando ela realmente iniciou.
+ * Se as tarefas estiverem atrasadas (por todas as threads estarem ocupadas),
+ * as próximas são executadas imediatamente, até recuperar o atraso, mantendo a taxa média planejada.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+class OpenLoopScheduler {
+    /**
+     * Uma tarefa a ser executada pelo escalonador.
+     */
+    @FunctionalInterface
+    interface Task {
+        /**
+         * Executa a tarefa.
+         * @param index índice da tarefa no escalonamento
+         * @param intendedNanos instante (obtido a partir de {@link System#nanoTime()}) em que a tarefa deveria iniciar
+         */
+        void run(int index, long intendedNanos);
+    }
+
+    private final String name;
+    private final int threads;
+    private final AtomicLong maxLagNanos;
+
+    /**
+     * Instancia um escalonador.
+     * @param name nome usado para identificar as threads do escalonador
+     * @param threads número de threads que executam as tarefas.
+     *                Deve ser suficiente para que as tarefas não fiquem atrasadas
+     *                quando executam operações bloqueantes.
+     */
+    OpenLoopScheduler(final String name, final int threads) {
+        this.name = name;
+        this.threads = Math.max(1, threads);
+        this.maxLagNanos = new AtomicLong();
+    }
+
+    /**
+     * Calcula um escalonamento em que as tarefas são executadas numa taxa constante.
+     * @param count número de tarefas
+     * @param ratePerSecond número de tarefas por segundo
+     * @return um vetor com o instante de cada tarefa (em nanossegundos), relativo ao início da execução
+     */
+    static long[] constantRate(final int count, final double ratePerSecond) {
+        final double intervalNanos = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+        final long[] schedule = new long[count];
+        for (int i = 0; i < count; i++) {
+            schedule[i] = Math.round(i * intervalNanos);
+        }
+
+        return schedule;
+    }
+
+    /**
+     * Executa as tarefas nos instantes indicados, aguardando até que todas terminem.
+     * @param schedule instantes (em nanossegundos, relativos ao início da execução e em ordem crescente)
+     *                 em que cada tarefa deve ser executada
+     * @param task tarefa a ser executada em cada instante
+     */
+    void run(final long[] schedule, final Task task) {
+        final AtomicInteger nextTask = new AtomicInteger();
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            final Thread thread = new Thread(r, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                int index;
+                while((index = nextTask.getAndIncrement()) < schedule.length) {
+                    final long intendedNanos = start + schedule[index];
+                    waitUntil(intendedNanos);
+                    updateMaxLag(System.nanoTime() - intendedNanos);
+                    task.run(index, intendedNanos);
+                }
+            });
+        }
+
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Suspende a thread atual até um determinado instante.
+     * @param timeNanos instante, obtido a partir de {@link System#nanoTime()}, até quando a thread deve aguardar
+     */
+    private static void waitUntil(final long timeNanos) {
+        long remaining;
+        while((remaining = timeNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private void updateMaxLag(final long lagNanos) {
+        long current;
+        while(lagNanos > (current = maxLagNanos.get()) && !maxLagNanos.compareAndSet(current, lagNanos)){
+            //tenta novamente, pois outra thread alterou o atraso máximo
+        }
+    }
+
+    /**
+     * Obtém o maior atraso (em nanossegundos) entre o instante planejado para uma tarefa e o seu início real.
+     * Atrasos altos indicam que não há threads suficientes para manter a taxa planejada.
+     */
+    long getMaxLagNanos() {
+        return maxLagNanos.get();
+    }
+}
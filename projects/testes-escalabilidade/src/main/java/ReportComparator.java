@@ -0,0 +1,97 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+/**
+ * Compara as métricas de duas execuções dos testes de escalabilidade
+ * (gravadas pelo {@link BenchmarkReport} em arquivos {@code NOME-metrics.csv}),
+ * indicando as métricas que pioraram mais do que um percentual limite (regressões).
+ *
+ * <p>Uso: {@code java -cp scalability-tests-1.0.0.jar ReportComparator BASE-metrics.csv ATUAL-metrics.csv [LIMITE%]}</p>
+ *
+ * <p>O limite padrão é definido pela propriedade {@code chat.report.threshold}.
+ * A aplicação termina com código de saída 1 se alguma regressão for encontrada,
+ * permitindo que seja usada em scripts de integração contínua.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+public class ReportComparator {
+    /**
+     * Percentual de piora de uma métrica a partir do qual ela é considerada uma regressão.
+     */
+    private static final double DEFAULT_THRESHOLD_PERCENT = Config.getInt("chat.report.threshold", 10);
+
+    public static void main(String[] args) {
+        if(args.length < 2){
+            System.err.println("Uso: java ReportComparator BASE-metrics.csv ATUAL-metrics.csv [LIMITE%]");
+            System.exit(2);
+        }
+
+        try {
+            final double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD_PERCENT;
+            final int regressions = compare(Paths.get(args[0]), Paths.get(args[1]), threshold);
+            System.exit(regressions > 0 ? 1 : 0);
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Erro ao comparar resultados: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Compara as métricas de duas execuções, imprimindo a variação de cada uma.
+     * @param baselineFile arquivo de métricas da execução usada como referência
+     * @param currentFile arquivo de métricas da execução a ser avaliada
+     * @param thresholdPercent percentual de piora a partir do qual uma métrica é considerada uma regressão
+     * @return o número de regressões encontradas
+     */
+    static int compare(final Path baselineFile, final Path currentFile, final double thresholdPercent) throws IOException {
+        final Map<String, BenchmarkReport.Metric> baseline = BenchmarkReport.readMetrics(baselineFile);
+        final Map<String, BenchmarkReport.Metric> current = BenchmarkReport.readMetrics(currentFile);
+
+        System.out.printf("Comparando %s (base) com %s (limite de regressão: %.1f%%)%n%n", baselineFile, currentFile, thresholdPercent);
+        System.out.printf("%-32s %14s %14s %10s%n", "Métrica", "Base", "Atual", "Variação");
+        int regressions = 0;
+        for (final Map.Entry<String, BenchmarkReport.Metric> entry : current.entrySet()) {
+            final BenchmarkReport.Metric base = baseline.get(entry.getKey());
+            if(base == null){
+                continue;
+            }
+
+            final BenchmarkReport.Metric metric = entry.getValue();
+            final double change = getChangePercent(base.getValue(), metric.getValue());
+            final boolean regression = isRegression(metric.getBetter(), base.getValue(), change, thresholdPercent);
+            if(regression) {
+                regressions++;
+            }
+
+            System.out.printf(
+                "%-32s %14.3f %14.3f %9.1f%%%s%n",
+                entry.getKey(), base.getValue(), metric.getValue(), change, regression ? "  <-- REGRESSÃO" : "");
+        }
+
+        System.out.printf("%nRegressões encontradas: %d%n", regressions);
+        return regressions;
+    }
+
+    private static double getChangePercent(final double base, final double current) {
+        if(base == 0){
+            return current == 0 ? 0 : Double.POSITIVE_INFINITY * Math.signum(current);
+        }
+
+        return (current - base) / Math.abs(base) * 100;
+    }
+
+    /**
+     * Verifica se a variação de uma métrica representa uma piora maior que o limite.
+     */
+    private static boolean isRegression(
+        final BenchmarkReport.Better better, final double base, final double changePercent, final double thresholdPercent)
+    {
+        switch (better) {
+            case LOWER: return changePercent > thresholdPercent;
+            case HIGHER: return base != 0 && changePercent < -thresholdPercent;
+            default: return false;
+        }
+    }
+}
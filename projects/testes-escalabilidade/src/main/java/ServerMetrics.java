@@ -0,0 +1,392 @@
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Métricas de execução de um servidor de chat, como número de conexões,
+ * bytes e mensagens recebidos/enviados e tempo de cada iteração do loop de eventos.
+ *
+ * <p>Os contadores são {@link LongAdder}s, que distribuem as atualizações de diferentes threads
+ * em células separadas, evitando que todas disputem a mesma variável.
+ * Assim, atualizar as métricas tem um custo muito baixo, mesmo com milhares de clientes.
+ * As distribuições (como o tempo de cada iteração do loop e o tamanho das leituras)
+ * são registradas em um conjunto fixo de histogramas ({@link LatencyHistogram}), um por processador,
+ * sendo o histograma usado escolhido pela thread que registra o valor.
+ * Assim, os loops de eventos de diferentes reactors normalmente não disputam os mesmos contadores,
+ * sem que o número de histogramas cresça com o número de threads (no servidor bloqueante, há uma thread por cliente).
+ * Tais histogramas são combinados apenas quando as métricas são consultadas.</p>
+ *
+ * <p>As métricas podem ser acompanhadas sem anexar um profiler ao servidor:</p>
+ * <ul>
+ *     <li>por JMX, pelo MBean {@code chat:type=ServerMetrics,name=NOME_DO_SERVIDOR} (veja {@link ServerMetricsMBean});</li>
+ *     <li>por HTTP, no endereço {@code http://SERVIDOR:PORTA/metrics}, onde a porta é definida por {@code chat.metrics.port}.
+ *     O conteúdo é um texto simples no formato usado pelo Prometheus, com uma métrica por linha.</li>
+ * </ul>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+class ServerMetrics implements ServerMetricsMBean, Closeable {
+    /**
+     * Porta onde as métricas são disponibilizadas por HTTP. Se for 0, o endpoint HTTP não é iniciado.
+     */
+    static final int HTTP_PORT = Config.getInt("chat.metrics.port", 9000);
+
+    /**
+     * Caminho do endpoint HTTP das métricas.
+     */
+    static final String HTTP_PATH = "/metrics";
+
+    private final LongAdder connectionsAccepted = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder connectionsTimedOut = new LongAdder();
+    private final LongAdder acceptPauses = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder selectedEvents = new LongAdder();
+
+    /** Tempo (em nanossegundos) de cada iteração dos loops de eventos, sem contar o tempo bloqueado em select(). */
+    private final StripedHistogram selectLoopTimes = new StripedHistogram();
+
+    /** Número de bytes obtidos em cada leitura (o histograma é usado aqui para valores que não são tempos). */
+    private final StripedHistogram readSizes = new StripedHistogram();
+
+    private ObjectName objectName;
+    private HttpServer httpServer;
+
+    /**
+     * Registra o MBean das métricas e inicia o endpoint HTTP (se {@link #HTTP_PORT} for maior que 0).
+     * Falhas são apenas registradas no log, pois o servidor pode funcionar sem as métricas.
+     * @param serverName nome do servidor, usado para identificar o MBean
+     */
+    void publish(final String serverName) {
+        try {
+            final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("chat:type=ServerMetrics,name=" + serverName);
+            mBeanServer.registerMBean(this, objectName);
+        } catch (JMException e) {
+            ChatServerAbstract.LOGGER.warning("Não foi possível registrar o MBean de métricas: " + e.getMessage());
+        }
+
+        if(HTTP_PORT <= 0){
+            return;
+        }
+
+        try {
+            httpServer = HttpServer.create(new InetSocketAddress(HTTP_PORT), 0);
+            httpServer.createContext(HTTP_PATH, exchange -> {
+                final byte[] body = toText().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try(OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            httpServer.setExecutor(Executors.newSingleThreadExecutor(task -> {
+                final Thread thread = new Thread(task, "metrics-http");
+                thread.setDaemon(true);
+                return thread;
+            }));
+            httpServer.start();
+            ChatServerAbstract.LOGGER.info("Métricas disponíveis em http://localhost:" + HTTP_PORT + HTTP_PATH);
+        } catch (IOException e) {
+            ChatServerAbstract.LOGGER.warning("Não foi possível iniciar o endpoint HTTP de métricas na porta " + HTTP_PORT + ": " + e.getMessage());
+        }
+    }
+
+    void connectionAccepted() {
+        connectionsAccepted.increment();
+    }
+
+    void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    /**
+     * Registra uma conexão encerrada por ficar ociosa por muito tempo.
+     * O encerramento em si é registrado por {@link #connectionClosed()}.
+     */
+    void connectionTimedOut() {
+        connectionsTimedOut.increment();
+    }
+
+    /**
+     * Registra uma leitura de dados de um cliente.
+     * @param bytes número de bytes lidos
+     */
+    void bytesRead(final int bytes) {
+        bytesIn.add(bytes);
+        readSizes.record(bytes);
+    }
+
+    /**
+     * Registra que o servidor parou temporariamente de aceitar conexões
+     * por uma falha (como atingir o limite de arquivos abertos).
+     */
+    void acceptPaused() {
+        acceptPauses.increment();
+    }
+
+    void bytesWritten(final long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    void messageReceived() {
+        messagesIn.increment();
+    }
+
+    void messagesSent(final int count) {
+        messagesOut.add(count);
+    }
+
+    /**
+     * Registra uma iteração de um loop de eventos.
+     * @param events número de eventos selecionados na iteração
+     * @param nanos tempo (em nanossegundos) gasto para processar tais eventos
+     */
+    void selectLoop(final int events, final long nanos) {
+        selectedEvents.add(events);
+        selectLoopTimes.record(nanos);
+    }
+
+    @Override
+    public long getConnectionsAccepted() {
+        return connectionsAccepted.sum();
+    }
+
+    @Override
+    public long getConnectionsActive() {
+        return Math.max(0, getConnectionsAccepted() - getConnectionsClosed());
+    }
+
+    @Override
+    public long getConnectionsClosed() {
+        return connectionsClosed.sum();
+    }
+
+    @Override
+    public long getConnectionsTimedOut() {
+        return connectionsTimedOut.sum();
+    }
+
+    @Override
+    public long getAcceptPauses() {
+        return acceptPauses.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    @Override
+    public long getSelectLoops() {
+        return selectLoopTimes.merge().getCount();
+    }
+
+    @Override
+    public double getSelectLoopMeanMicros() {
+        return toMicros(selectLoopTimes.merge().getMean());
+    }
+
+    @Override
+    public double getSelectLoopP99Micros() {
+        return toMicros(selectLoopTimes.merge().getValueAtPercentile(99));
+    }
+
+    @Override
+    public double getSelectLoopMaxMicros() {
+        return toMicros(selectLoopTimes.merge().getMax());
+    }
+
+    @Override
+    public double getEventsPerSelect() {
+        final long loops = getSelectLoops();
+        return loops == 0 ? 0 : selectedEvents.sum() / (double) loops;
+    }
+
+    @Override
+    public long getReads() {
+        return readSizes.merge().getCount();
+    }
+
+    @Override
+    public double getReadSizeMean() {
+        return readSizes.merge().getMean();
+    }
+
+    @Override
+    public long getReadSizeP50() {
+        return readSizes.merge().getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getReadSizeP99() {
+        return readSizes.merge().getValueAtPercentile(99);
+    }
+
+    /**
+     * Conjunto de histogramas onde cada thread registra valores no histograma
+     * correspondente ao seu id, reduzindo a disputa entre threads pelos mesmos contadores.
+     */
+    private static final class StripedHistogram {
+        private final LatencyHistogram[] stripes;
+        private final int mask;
+
+        StripedHistogram() {
+            final int processors = Runtime.getRuntime().availableProcessors();
+            final int count = Integer.highestOneBit(Math.max(1, processors - 1)) << 1;
+            this.stripes = new LatencyHistogram[count];
+            this.mask = count - 1;
+            for (int i = 0; i < count; i++) {
+                stripes[i] = new LatencyHistogram();
+            }
+        }
+
+        void record(final long value) {
+            stripes[(int) Thread.currentThread().getId() & mask].record(value);
+        }
+
+        /**
+         * @return um novo histograma combinando os valores de todas as threads
+         */
+        LatencyHistogram merge() {
+            final LatencyHistogram result = new LatencyHistogram();
+            for (final LatencyHistogram stripe : stripes) {
+                result.merge(stripe);
+            }
+
+            return result;
+        }
+    }
+
+    private static double toMicros(final double nanos) {
+        return nanos / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    /**
+     * Gera um texto com as métricas no formato usado pelo Prometheus,
+     * indicando se cada uma é um contador (que só cresce) ou um valor instantâneo (gauge).
+     * @return o texto com uma métrica por linha
+     */
+    String toText() {
+        final StringBuilder builder = new StringBuilder(1024);
+        appendMetric(builder, "chat_connections_accepted", "counter", getConnectionsAccepted());
+        appendMetric(builder, "chat_connections_closed", "counter", getConnectionsClosed());
+        appendMetric(builder, "chat_connections_active", "gauge", getConnectionsActive());
+        appendMetric(builder, "chat_connections_timed_out", "counter", getConnectionsTimedOut());
+        appendMetric(builder, "chat_accept_pauses", "counter", getAcceptPauses());
+        appendMetric(builder, "chat_bytes_in", "counter", getBytesIn());
+        appendMetric(builder, "chat_bytes_out", "counter", getBytesOut());
+        appendMetric(builder, "chat_messages_in", "counter", getMessagesIn());
+        appendMetric(builder, "chat_messages_out", "counter", getMessagesOut());
+        appendMetric(builder, "chat_select_loops", "counter", getSelectLoops());
+        appendMetric(builder, "chat_select_loop_mean_micros", "gauge", getSelectLoopMeanMicros());
+        appendMetric(builder, "chat_select_loop_p99_micros", "gauge", getSelectLoopP99Micros());
+        appendMetric(builder, "chat_select_loop_max_micros", "gauge", getSelectLoopMaxMicros());
+        appendMetric(builder, "chat_events_per_select", "gauge", getEventsPerSelect());
+        appendMetric(builder, "chat_reads", "counter", getReads());
+        appendMetric(builder, "chat_read_size_mean_bytes", "gauge", getReadSizeMean());
+        appendMetric(builder, "chat_read_size_p50_bytes", "gauge", getReadSizeP50());
+        appendMetric(builder, "chat_read_size_p99_bytes", "gauge", getReadSizeP99());
+        return builder.toString();
+    }
+
+    private static void appendMetric(final StringBuilder builder, final String name, final String type, final double value) {
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n')
+               .append(name).append(' ')
+               .append(value == Math.rint(value) ? String.valueOf((long) value) : String.format(Locale.US, "%.3f", value))
+               .append('\n');
+    }
+
+    /**
+     * Obtém as métricas de um servidor por meio do seu endpoint HTTP.
+     * @param url endereço do endpoint, como {@code http://localhost:9000/metrics}
+     * @param counters conjunto onde são incluídos os nomes das métricas que são contadores
+     *                 (e não valores instantâneos), permitindo calcular a variação entre duas leituras
+     * @return um mapa onde a chave é o nome da métrica
+     */
+    static Map<String, Double> scrape(final String url, final Set<String> counters) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(2000);
+        connection.setReadTimeout(2000);
+        final Map<String, Double> values = new LinkedHashMap<>();
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                final String[] fields = line.trim().split("\\s+");
+                if(fields.length == 4 && fields[0].equals("#") && fields[1].equals("TYPE") && fields[3].equals("counter")) {
+                    counters.add(fields[2]);
+                } else if(fields.length == 2 && !fields[0].startsWith("#")) {
+                    try {
+                        values.put(fields[0], Double.parseDouble(fields[1]));
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Métrica inválida em " + url + ": " + line, e);
+                    }
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "Conexões aceitas: %d | ativas: %d | fechadas: %d | mensagens recebidas: %d | enviadas: %d | bytes recebidos: %d | enviados: %d",
+            getConnectionsAccepted(), getConnectionsActive(), getConnectionsClosed(),
+            getMessagesIn(), getMessagesOut(), getBytesIn(), getBytesOut());
+    }
+
+    @Override
+    public void close() {
+        if(httpServer != null) {
+            httpServer.stop(0);
+        }
+
+        if(objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                ChatServerAbstract.LOGGER.warning("Não foi possível remover o MBean de métricas: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Interface de gerenciamento (MBean) que expõe por meio de JMX as métricas de um servidor de chat,
+ * permitindo acompanhá-las com ferramentas como o JConsole ou o VisualVM.
+ *
+ * @author Manoel Campos da Silva Filho
+ * @see ServerMetrics
+ */
+public interface ServerMetricsMBean {
+    long getConnectionsAccepted();
+    long getConnectionsActive();
+    long getConnectionsClosed();
+    long getConnectionsTimedOut();
+    long getAcceptPauses();
+    long getBytesIn();
+    long getBytesOut();
+    long getMessagesIn();
+    long getMessagesOut();
+    long getSelectLoops();
+    double getSelectLoopMeanMicros();
+    double getSelectLoopP99Micros();
+    double getSelectLoopMaxMicros();
+    double getEventsPerSelect();
+    long getReads();
+    double getReadSizeMean();
+    long getReadSizeP50();
+    long getReadSizeP99();
+}
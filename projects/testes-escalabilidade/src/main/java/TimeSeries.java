@@ -0,0 +1,85 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Série temporal que contabiliza, a cada segundo de um teste, quantas vezes
+ * diferentes eventos ocorreram (como conexões estabelecidas e falhas de conexão).
+ * Pode ser atualizada por diferentes threads simultaneamente.
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+class TimeSeries {
+    private final long startNanos;
+    private final String[] columns;
+
+    /**
+     * Contadores de cada segundo do teste, onde cada posição do vetor
+     * corresponde a uma das {@link #columns}.
+     */
+    private final ConcurrentSkipListMap<Long, AtomicLongArray> seconds;
+
+    /**
+     * Instancia uma série temporal.
+     * @param startNanos instante de início do teste, obtido por {@link System#nanoTime()}
+     * @param columns nomes dos eventos contabilizados
+     */
+    TimeSeries(final long startNanos, final String... columns) {
+        this.startNanos = startNanos;
+        this.columns = columns;
+        this.seconds = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Contabiliza a ocorrência de um evento no segundo atual do teste.
+     * @param column índice do evento, dentro dos nomes indicados no construtor
+     */
+    void increment(final int column) {
+        increment(column, System.nanoTime());
+    }
+
+    /**
+     * Contabiliza a ocorrência de um evento em um determinado instante.
+     * @param column índice do evento, dentro dos nomes indicados no construtor
+     * @param timeNanos instante em que o evento ocorreu, obtido a partir de {@link System#nanoTime()}
+     */
+    void increment(final int column, final long timeNanos) {
+        final long second = Math.max(0, TimeUnit.NANOSECONDS.toSeconds(timeNanos - startNanos));
+        seconds.computeIfAbsent(second, s -> new AtomicLongArray(columns.length)).incrementAndGet(column);
+    }
+
+    String[] getColumns() {
+        return columns;
+    }
+
+    /**
+     * Obtém os contadores de cada segundo do teste em que algum evento ocorreu.
+     * @return um mapa onde a chave é o segundo (a partir de 0) e o valor são os contadores de cada evento
+     */
+    Map<Long, AtomicLongArray> getSeconds() {
+        return seconds;
+    }
+
+    /**
+     * Imprime uma tabela com os contadores de cada segundo do teste.
+     * @param title título da tabela
+     */
+    void print(final String title) {
+        System.out.println(title);
+        System.out.printf("%8s", "Segundo");
+        for (final String column : columns) {
+            System.out.printf(" %14s", column);
+        }
+        System.out.println();
+
+        for (final Map.Entry<Long, AtomicLongArray> entry : seconds.entrySet()) {
+            System.out.printf("%8d", entry.getKey());
+            for (int i = 0; i < columns.length; i++) {
+                System.out.printf(" %14d", entry.getValue().get(i));
+            }
+            System.out.println();
+        }
+        System.out.println();
+    }
+}
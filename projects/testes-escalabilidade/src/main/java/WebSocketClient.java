@@ -1,23 +1,239 @@
 import javax.websocket.ContainerProvider;
 import javax.websocket.DeploymentException;
+import javax.websocket.Session;
 import javax.websocket.WebSocketContainer;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
 
 /**
+ * Cliente WebSocket do servidor de chat (iniciado com {@code -Dchat.websocket=true}),
+ * que usa a API javax.websocket (JSR 356) e o {@link WebSocketClientEndpoint}.
+ *
+ * <p>Por padrão, abre uma única sessão interativa: as linhas digitadas são enviadas pela thread principal
+ * e as mensagens recebidas são exibidas pelo endpoint, sem que as threads do container fiquem bloqueadas
+ * aguardando a digitação.</p>
+ *
+ * <p>Com {@code -Dchat.ws.sessions=N}, abre N sessões que enviam as mensagens de um roteiro
+ * ({@code chat.ws.script}) numa taxa definida ({@code chat.ws.rate} mensagens por segundo em cada sessão)
+ * durante {@code chat.ws.duration} segundos. Os envios são disparados por poucas threads
+ * ({@code chat.ws.threads}) e realizados de forma assíncrona, permitindo que uma única JVM
+ * mantenha milhares de sessões ativas. Com o servidor em modo eco, são exibidos ao final
+ * os percentis do tempo de ida e volta (RTT) das mensagens e as sessões com maior RTT médio.</p>
+ *
  * @author Manoel Campos da Silva Filho
  * @see <a href="https://github.com/koekiebox/javaee7-samples/tree/master/websocket/javase-client/src/main/java/org/javaee7/websocket/javase/client">WebSocket Java</a>
  */
 public class WebSocketClient {
+    private static final Logger LOGGER = Logger.getLogger(WebSocketClient.class.getName());
+
+    private static final String DEFAULT_URI = "ws://localhost:" + ChatServerAbstract.PORT + "/";
+
+    /**
+     * Número de sessões roteirizadas. Se for 0, é aberta uma única sessão interativa.
+     */
+    private static final int SESSIONS = Config.getInt("chat.ws.sessions", 0);
+
+    /**
+     * Arquivo contendo as mensagens do roteiro (uma por linha), enviadas ciclicamente por cada sessão.
+     * Se vazio, é usado um roteiro padrão.
+     */
+    private static final String SCRIPT_FILE = Config.getString("chat.ws.script", "");
+
+    private static final String[] DEFAULT_SCRIPT = {"Olá!", "Tudo bem?", "Alguém por aí?", "Até mais."};
+
+    /**
+     * Número de mensagens enviadas por segundo por cada sessão.
+     */
+    private static final double RATE = Config.getDouble("chat.ws.rate", 1);
+
+    /**
+     * Tempo (em segundos) durante o qual as mensagens são enviadas.
+     */
+    private static final int DURATION_SECS = Config.getInt("chat.ws.duration", 30);
+
+    /**
+     * Número de threads que disparam os envios das mensagens de todas as sessões.
+     */
+    private static final int THREADS = Config.getInt("chat.ws.threads", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Tempo máximo (em milissegundos) para aguardar as respostas das mensagens enviadas, após terminar o envio.
+     */
+    private static final long RESPONSE_TIMEOUT_MS = Config.getLong("chat.msg.timeoutMs", 5000);
+
+    /**
+     * Número de sessões com maior RTT médio exibidas nos resultados.
+     */
+    private static final int SLOWEST_SESSIONS = 5;
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
     public static void main(String[] args) {
+        final URI uri = URI.create(args.length == 0 ? DEFAULT_URI : args[0]);
+        final WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        System.out.println("Conectando em " + uri);
         try {
-            WebSocketContainer container = ContainerProvider.getWebSocketContainer();
-            //String uri = "ws://echo.websocket.org:80/";
-            String uri = "ws://localhost:4000/";
-            System.out.println("Connecting to " + uri);
-            container.connectToServer(WebSocketClientEndpoint.class, URI.create(uri));
+            if(SESSIONS > 0) {
+                runScript(container, uri);
+            } else runInteractive(container, uri);
         } catch (DeploymentException | IOException ex) {
             System.err.println(ex.getMessage());
         }
     }
+
+    /**
+     * Abre uma sessão e envia cada linha digitada como uma mensagem, até ser digitado "sair"
+     * (que também encerra a conexão no servidor) ou a entrada terminar.
+     */
+    private static void runInteractive(final WebSocketContainer container, final URI uri) throws DeploymentException, IOException {
+        final WebSocketClientEndpoint endpoint = new WebSocketClientEndpoint();
+        final Session session = container.connectToServer(endpoint, uri);
+        final BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while(session.isOpen() && (line = in.readLine()) != null) {
+            endpoint.send(line);
+            if("sair".equals(line)) {
+                break;
+            }
+        }
+
+        session.close();
+    }
+
+    private static void runScript(final WebSocketContainer container, final URI uri) throws IOException {
+        final byte[][] script = loadScript();
+        final LatencyRecorder roundTripTimes = new LatencyRecorder(true);
+        final List<WebSocketClientEndpoint> endpoints = connect(container, uri, script, roundTripTimes);
+        if(endpoints.isEmpty()){
+            throw new IOException("Nenhuma sessão conectada. Verifique se o servidor está em execução com -Dchat.websocket=true");
+        }
+
+        System.out.printf(
+                "Enviando %.1f mensagens por segundo em cada uma das %d sessões durante %d segundos usando %d threads...\n",
+                RATE, endpoints.size(), DURATION_SECS, THREADS);
+        final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(THREADS);
+        final long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / RATE);
+        for (final WebSocketClientEndpoint endpoint : endpoints) {
+            //Espalha o primeiro envio das sessões ao longo de um período, evitando rajadas.
+            final long initialDelay = ThreadLocalRandom.current().nextLong(periodNanos);
+            scheduler.scheduleAtFixedRate(endpoint::sendNext, initialDelay, periodNanos, TimeUnit.NANOSECONDS);
+        }
+
+        LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(DURATION_SECS));
+        scheduler.shutdownNow();
+        waitResponses(endpoints);
+        closeSessions(endpoints);
+
+        printResults(endpoints, roundTripTimes.getHistogram());
+    }
+
+    /**
+     * Encerra as sessões, continuando mesmo que o encerramento de alguma falhe
+     * (como uma sessão cuja conexão já caiu), para que os resultados ainda sejam exibidos.
+     */
+    private static void closeSessions(final List<WebSocketClientEndpoint> endpoints) {
+        for (final WebSocketClientEndpoint endpoint : endpoints) {
+            try {
+                endpoint.getSession().close();
+            } catch (IOException e) {
+                LOGGER.warning("Não foi possível encerrar a sessão " + endpoint.getId() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static byte[][] loadScript() throws IOException {
+        final List<String> lines = SCRIPT_FILE.isEmpty() ? null : Files.readAllLines(Paths.get(SCRIPT_FILE), StandardCharsets.UTF_8);
+        final String[] messages = lines == null ? DEFAULT_SCRIPT : lines.stream().filter(line -> !line.isEmpty()).toArray(String[]::new);
+        if(messages.length == 0){
+            throw new IOException("O roteiro " + SCRIPT_FILE + " não possui mensagens");
+        }
+
+        final byte[][] script = new byte[messages.length][];
+        for (int i = 0; i < messages.length; i++) {
+            script[i] = messages[i].getBytes(StandardCharsets.UTF_8);
+        }
+
+        return script;
+    }
+
+    private static List<WebSocketClientEndpoint> connect(
+            final WebSocketContainer container, final URI uri,
+            final byte[][] script, final LatencyRecorder roundTripTimes)
+    {
+        System.out.printf("Conectando %d sessões...\n", SESSIONS);
+        final List<WebSocketClientEndpoint> endpoints = new ArrayList<>(SESSIONS);
+        int failures = 0;
+        for (int i = 0; i < SESSIONS; i++) {
+            final WebSocketClientEndpoint endpoint = new WebSocketClientEndpoint(i, script, roundTripTimes);
+            try {
+                container.connectToServer(endpoint, uri);
+                endpoints.add(endpoint);
+            } catch (DeploymentException | IOException e) {
+                failures++;
+            }
+        }
+
+        System.out.printf("Sessões conectadas: %d | Falhas de conexão: %d\n\n", endpoints.size(), failures);
+        return endpoints;
+    }
+
+    /**
+     * Aguarda a chegada das respostas das mensagens enviadas, até que o tempo máximo de espera termine.
+     */
+    private static void waitResponses(final List<WebSocketClientEndpoint> endpoints) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RESPONSE_TIMEOUT_MS);
+        while(System.nanoTime() < deadline) {
+            final long sent = endpoints.stream().mapToLong(WebSocketClientEndpoint::getSent).sum();
+            final long received = endpoints.stream().mapToLong(WebSocketClientEndpoint::getReceived).sum();
+            if(received >= sent) {
+                return;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+    }
+
+    private static void printResults(final List<WebSocketClientEndpoint> endpoints, final LatencyHistogram roundTripTimes) {
+        System.out.printf("Mensagens enviadas:             %d\n", endpoints.stream().mapToLong(WebSocketClientEndpoint::getSent).sum());
+        System.out.printf("Respostas recebidas:            %d\n", endpoints.stream().mapToLong(WebSocketClientEndpoint::getReceived).sum());
+        System.out.printf("Falhas de envio:                %d\n", endpoints.stream().mapToLong(WebSocketClientEndpoint::getFailed).sum());
+        System.out.printf("Envios descartados:             %d\n", endpoints.stream().mapToLong(WebSocketClientEndpoint::getSkipped).sum());
+        System.out.printf("Mensagens descartadas:          %d\n", endpoints.stream().mapToLong(WebSocketClientEndpoint::getUnexpected).sum());
+        if(roundTripTimes.getCount() == 0){
+            System.out.println("Nenhuma resposta recebida. Para medir o RTT, o servidor deve estar em modo eco (-Dchat.echo=true).");
+            return;
+        }
+
+        System.out.printf("RTT mínimo:                     %.3f ms\n", LatencyHistogram.toMillis(roundTripTimes.getMin()));
+        System.out.printf("RTT médio:                      %.3f ms\n", LatencyHistogram.toMillis(roundTripTimes.getMean()));
+        for (final double percentile : PERCENTILES) {
+            System.out.printf("RTT percentil %-5s            %.3f ms\n",
+                    percentile + "%:", LatencyHistogram.toMillis(roundTripTimes.getValueAtPercentile(percentile)));
+        }
+        System.out.printf("RTT máximo:                     %.3f ms\n\n", LatencyHistogram.toMillis(roundTripTimes.getMax()));
+
+        System.out.printf("Sessões com maior RTT médio:\n");
+        endpoints.stream()
+                 .filter(endpoint -> endpoint.getReceived() > 0)
+                 .sorted(Comparator.comparingDouble(WebSocketClientEndpoint::getMeanRoundTripNanos).reversed())
+                 .limit(SLOWEST_SESSIONS)
+                 .forEach(endpoint -> System.out.printf(
+                         "\tSessão %6d: %d respostas | RTT médio %.3f ms | RTT máximo %.3f ms\n",
+                         endpoint.getId(), endpoint.getReceived(),
+                         LatencyHistogram.toMillis(endpoint.getMeanRoundTripNanos()),
+                         LatencyHistogram.toMillis(endpoint.getMaxRoundTripNanos())));
+    }
 }
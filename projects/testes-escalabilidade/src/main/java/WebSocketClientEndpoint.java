@@ -1,40 +1,287 @@
 import javax.websocket.*;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.logging.Logger;
 
 /**
+ * Endpoint de um cliente WebSocket do servidor de chat, que nunca bloqueia as threads do container.
+ *
+ * <p>As mensagens são enviadas por meio de {@link Session#getAsyncRemote()},
+ * sendo o resultado de cada envio informado ao {@link SendHandler} quando a escrita é concluída.
+ * Como uma sessão só pode ter um envio assíncrono em andamento, uma mensagem do roteiro
+ * que deveria ser enviada enquanto o envio anterior não terminou é descartada e contabilizada
+ * (veja {@link #getSkipped()}), indicando que a sessão não conseguiu manter a taxa desejada.</p>
+ *
+ * <p>O endpoint pode funcionar em dois modos:</p>
+ * <ul>
+ *     <li>interativo: as mensagens recebidas são apenas exibidas,
+ *     enquanto as mensagens digitadas são enviadas pelo {@link WebSocketClient} (veja {@link #send(String)});</li>
+ *     <li>roteirizado: cada chamada a {@link #sendNext()} envia a próxima mensagem de um roteiro,
+ *     precedida de um número de sequência e do instante de envio (como nos testes de escalabilidade).
+ *     Com o servidor em modo eco, o tempo de ida e volta (RTT) de cada mensagem é registrado
+ *     no {@link LatencyRecorder} compartilhado por todas as sessões e nas estatísticas da própria sessão.
+ *     Os números de sequência são únicos entre todas as sessões, e apenas as mensagens recebidas
+ *     cujo número de sequência é de uma mensagem enviada pela própria sessão e ainda sem resposta
+ *     são consideradas respostas. As demais (como mensagens de outras sessões, distribuídas pelo
+ *     servidor quando não está em modo eco) são descartadas (veja {@link #getUnexpected()}).</li>
+ * </ul>
+ *
  * @author Manoel Campos da Silva Filho
  */
 @ClientEndpoint
-public class WebSocketClientEndpoint  {
-    private Logger logger = Logger.getLogger(this.getClass().getName());
+public class WebSocketClientEndpoint {
+    private static final Logger LOGGER = Logger.getLogger(WebSocketClientEndpoint.class.getName());
+
+    /**
+     * Tamanho do cabeçalho das mensagens do roteiro,
+     * que contém o número de sequência e o instante de envio (obtido por {@link System#nanoTime()}).
+     */
+    static final int MESSAGE_HEADER_LENGTH = 2 * Long.BYTES;
+
+    private static final AtomicLongFieldUpdater<WebSocketClientEndpoint> SENT =
+            AtomicLongFieldUpdater.newUpdater(WebSocketClientEndpoint.class, "sent");
+    private static final AtomicLongFieldUpdater<WebSocketClientEndpoint> FAILED =
+            AtomicLongFieldUpdater.newUpdater(WebSocketClientEndpoint.class, "failed");
+    private static final AtomicLongFieldUpdater<WebSocketClientEndpoint> SKIPPED =
+            AtomicLongFieldUpdater.newUpdater(WebSocketClientEndpoint.class, "skipped");
+
+    /**
+     * Próximo número de sequência, compartilhado por todas as sessões
+     * para que uma mensagem de outra sessão nunca seja confundida com uma resposta.
+     */
+    private static final AtomicLong NEXT_SEQUENCE = new AtomicLong();
+
+    private final int id;
+
+    /**
+     * Mensagens enviadas ciclicamente pela sessão, ou null no modo interativo.
+     */
+    private final byte[][] script;
+
+    /**
+     * Onde os tempos de ida e volta das mensagens são registrados, ou null no modo interativo.
+     */
+    private final LatencyRecorder roundTripTimes;
+
+    /**
+     * Indica se há um envio assíncrono em andamento.
+     */
+    private final AtomicBoolean sending;
+
+    /**
+     * Callback chamado pelo container quando um envio é concluído.
+     */
+    private final SendHandler sendHandler;
+
+    /**
+     * Números de sequência das mensagens enviadas pela sessão que ainda aguardam resposta.
+     */
+    private final Set<Long> pendingSequences;
+
+    private volatile Session session;
+
+    /**
+     * Número de mensagens do roteiro enviadas pela sessão, usado para escolher a próxima mensagem.
+     */
+    private long scriptIndex;
+
+    /**
+     * Número de sequência da mensagem cujo envio está em andamento.
+     */
+    private volatile long sendingSequence;
+
+    private volatile long sent;
+    private volatile long failed;
+    private volatile long skipped;
+
+    /*
+     * Estatísticas das respostas recebidas pela sessão.
+     * O container chama os métodos de um mesmo endpoint por uma thread de cada vez,
+     * assim tais campos só precisam ser voláteis para serem lidos ao final do teste.
+     */
+    private volatile long received;
+    private volatile long unexpected;
+    private volatile long roundTripSumNanos;
+    private volatile long roundTripMaxNanos;
+
+    /**
+     * Instancia um endpoint no modo interativo.
+     */
+    public WebSocketClientEndpoint() {
+        this(0, null, null);
+    }
+
+    /**
+     * Instancia um endpoint no modo roteirizado.
+     * @param id número que identifica a sessão nos resultados
+     * @param script mensagens enviadas ciclicamente pela sessão
+     * @param roundTripTimes onde os tempos de ida e volta das mensagens são registrados
+     */
+    WebSocketClientEndpoint(final int id, final byte[][] script, final LatencyRecorder roundTripTimes) {
+        this.id = id;
+        this.script = script;
+        this.roundTripTimes = roundTripTimes;
+        this.sending = new AtomicBoolean();
+        this.sendHandler = this::onSendCompleted;
+        this.pendingSequences = ConcurrentHashMap.newKeySet();
+    }
 
     @OnOpen
-    public void onOpen(Session session) {
-        logger.info("Connected ... " + session.getId());
+    public void onOpen(final Session session) {
+        this.session = session;
+        if(script == null) {
+            LOGGER.info("Conectado: sessão " + session.getId());
+        }
+    }
+
+    /**
+     * Envia a próxima mensagem do roteiro, sem aguardar a conclusão do envio.
+     * Se o envio anterior ainda não foi concluído, a mensagem é descartada.
+     * Pode ser chamado por qualquer thread.
+     */
+    void sendNext() {
+        final Session current = session;
+        if(current == null || !current.isOpen()){
+            FAILED.incrementAndGet(this);
+            return;
+        }
+
+        if(!sending.compareAndSet(false, true)){
+            SKIPPED.incrementAndGet(this);
+            return;
+        }
+
+        //Apenas a thread que obteve a permissão de envio acessa o índice do roteiro.
+        final byte[] text = script[(int) (scriptIndex++ % script.length)];
+        final long sequence = NEXT_SEQUENCE.incrementAndGet();
+        final ByteBuffer msg = ByteBuffer.allocate(MESSAGE_HEADER_LENGTH + text.length);
+        msg.putLong(sequence).putLong(System.nanoTime()).put(text);
+        //O cast para Buffer evita erro ao executar em Java 8 um código compilado em versões posteriores.
+        ((Buffer)msg).flip();
+        //Registrada antes do envio, pois a resposta pode chegar antes de o envio ser concluído.
+        pendingSequences.add(sequence);
+        sendingSequence = sequence;
         try {
-            session.getBasicRemote().sendText("start");
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            current.getAsyncRemote().sendBinary(msg, sendHandler);
+        } catch (IllegalStateException e) {
+            pendingSequences.remove(sequence);
+            sending.set(false);
+            FAILED.incrementAndGet(this);
+        }
+    }
+
+    /**
+     * Envia uma mensagem de texto digitada pelo usuário, sem aguardar a conclusão do envio.
+     * @param text texto da mensagem
+     */
+    void send(final String text) {
+        final Session current = session;
+        if(current != null && current.isOpen()) {
+            current.getAsyncRemote().sendText(text, sendHandler);
+        }
+    }
+
+    private void onSendCompleted(final SendResult result) {
+        //Lido antes de liberar a permissão de envio, quando ainda não pode ser alterado por outro envio.
+        final long sequence = sendingSequence;
+        sending.set(false);
+        if(result.isOK()) {
+            SENT.incrementAndGet(this);
+        } else {
+            pendingSequences.remove(sequence);
+            FAILED.incrementAndGet(this);
+            LOGGER.fine("Falha ao enviar mensagem pela sessão " + id + ": " + result.getException());
         }
     }
 
     @OnMessage
-    public String onMessage(String message, Session session) {
-        BufferedReader bufferRead = new BufferedReader(new InputStreamReader(System.in));
-        try {
-            logger.info("Received ...." + message);
-            String userInput = bufferRead.readLine();
-            return userInput;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    public void onMessage(final String message) {
+        LOGGER.info("Recebida: " + message);
+    }
+
+    /**
+     * Recebe uma mensagem binária, que é como o servidor de chat envia as mensagens.
+     * No modo roteirizado, se a mensagem for a resposta de uma mensagem enviada pela sessão,
+     * registra o tempo desde o seu envio (contido no seu cabeçalho). Caso contrário, ela é descartada.
+     * @param message conteúdo da mensagem
+     */
+    @OnMessage
+    public void onMessage(final ByteBuffer message) {
+        if(roundTripTimes == null) {
+            LOGGER.info("Recebida: " + FrameCodec.toText(message));
+            return;
+        }
+
+        if(message.remaining() < MESSAGE_HEADER_LENGTH || !pendingSequences.remove(message.getLong(message.position()))){
+            unexpected++;
+            return;
         }
+
+        final long roundTripNanos = System.nanoTime() - message.getLong(message.position() + Long.BYTES);
+        roundTripTimes.record(roundTripNanos);
+        received++;
+        roundTripSumNanos += roundTripNanos;
+        roundTripMaxNanos = Math.max(roundTripMaxNanos, roundTripNanos);
     }
 
     @OnClose
-    public void onClose(Session session, CloseReason closeReason) {
-        logger.info(String.format("Session %s close because of %s", session.getId(), closeReason));
+    public void onClose(final Session session, final CloseReason closeReason) {
+        if(script == null) {
+            LOGGER.info(String.format("Sessão %s encerrada: %s", session.getId(), closeReason));
+        }
+    }
+
+    @OnError
+    public void onError(final Session session, final Throwable error) {
+        LOGGER.fine("Erro na sessão " + id + ": " + error.getMessage());
+    }
+
+    Session getSession() {
+        return session;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    long getSent() {
+        return sent;
+    }
+
+    long getFailed() {
+        return failed;
+    }
+
+    long getSkipped() {
+        return skipped;
+    }
+
+    long getReceived() {
+        return received;
+    }
+
+    /**
+     * Obtém o número de mensagens recebidas que não eram respostas de mensagens enviadas pela sessão.
+     */
+    long getUnexpected() {
+        return unexpected;
+    }
+
+    /**
+     * Obtém o tempo médio de ida e volta das mensagens da sessão.
+     * @return o tempo em nanossegundos, ou 0 se nenhuma resposta foi recebida
+     */
+    double getMeanRoundTripNanos() {
+        final long count = received;
+        return count == 0 ? 0 : roundTripSumNanos / (double) count;
+    }
+
+    long getMaxRoundTripNanos() {
+        return roundTripMaxNanos;
     }
-}
\ No newline at end of file
+}
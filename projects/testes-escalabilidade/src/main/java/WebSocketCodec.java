@@ -0,0 +1,354 @@
+import java.net.ProtocolException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Codifica e decodifica as mensagens trocadas entre clientes e servidores de chat
+ * por meio do protocolo WebSocket (<a href="https://tools.ietf.org/html/rfc6455">RFC 6455</a>),
+ * usado pelo {@link NonBlockingChatServer} quando a propriedade {@code chat.websocket} é true.
+ *
+ * <p>Uma conexão WebSocket inicia com uma requisição HTTP de upgrade enviada pelo cliente,
+ * que contém uma chave ({@code Sec-WebSocket-Key}). O servidor responde com o status 101
+ * e um valor calculado a partir de tal chave ({@code Sec-WebSocket-Accept}),
+ * passando ambos a trocar frames no formato abaixo:</p>
+ *
+ * <pre>
+ * +-----+------+--------+------+----------------+----------------------+----------------------+
+ * | FIN | RSV  | opcode | MASK | tamanho (7 b.) | tamanho estendido    | chave de máscara     |
+ * | 1 b.| 3 b. | 4 bits | 1 b. | 0-125/126/127  | (0, 2 ou 8 bytes)    | (0 ou 4 bytes)       |
+ * +-----+------+--------+------+----------------+----------------------+----------------------+
+ * | conteúdo (tamanho bytes), que é mascarado (XOR com a chave) nos frames enviados pelo cliente |
+ * +--------------------------------------------------------------------------------------------+
+ * </pre>
+ *
+ * <p>As mensagens de chat são enviadas em frames binários, pois as mensagens de teste
+ * contêm números em binário que não formam texto UTF-8 válido.
+ * Como elas têm no máximo {@link FrameCodec#MAX_PAYLOAD_LENGTH} bytes,
+ * mensagens fragmentadas em vários frames não são suportadas.
+ * Assim como no {@link FrameCodec}, o conteúdo de cada frame é retornado como uma fatia (slice)
+ * do buffer de leitura, sendo a máscara removida no próprio buffer, sem cópia dos dados.</p>
+ *
+ * @author Manoel Campos da Silva Filho
+ */
+final class WebSocketCodec {
+    static final int OP_CONTINUATION = 0x0;
+    static final int OP_TEXT = 0x1;
+    static final int OP_BINARY = 0x2;
+    static final int OP_CLOSE = 0x8;
+    static final int OP_PING = 0x9;
+    static final int OP_PONG = 0xA;
+
+    /**
+     * Tamanho máximo (em bytes) do cabeçalho de um frame:
+     * 2 bytes fixos, 8 bytes de tamanho estendido e 4 bytes da chave de máscara.
+     */
+    static final int MAX_HEADER_LENGTH = 14;
+
+    /**
+     * Tamanho máximo (em bytes) do conteúdo de um frame de controle (close, ping e pong).
+     */
+    private static final int MAX_CONTROL_PAYLOAD_LENGTH = 125;
+
+    /**
+     * Valor definido pela RFC 6455 que é concatenado à chave enviada pelo cliente
+     * para calcular o valor do cabeçalho {@code Sec-WebSocket-Accept}.
+     */
+    private static final String HANDSHAKE_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final byte[] HEADERS_END = {'\r', '\n', '\r', '\n'};
+    private static final String KEY_HEADER = "sec-websocket-key:";
+    private static final String ACCEPT_HEADER = "sec-websocket-accept:";
+
+    private WebSocketCodec(){/**/}
+
+    /**
+     * Codifica uma mensagem enviada pelo servidor, gerando um frame (sem máscara)
+     * que pode ser enviado a vários destinatários.
+     * @param opcode tipo do frame, como {@link #OP_BINARY}
+     * @param payload buffer contendo o conteúdo da mensagem, que não tem sua posição alterada
+     * @return um novo buffer, pronto para ser lido, contendo o cabeçalho e o conteúdo da mensagem
+     */
+    static ByteBuffer encode(final int opcode, final ByteBuffer payload) {
+        final ByteBuffer frame = ByteBuffer.allocate(MAX_HEADER_LENGTH + payload.remaining());
+        putHeader(frame, opcode, payload.remaining(), false);
+        frame.put(payload.duplicate());
+        //O cast para Buffer evita erro ao executar em Java 8 um código compilado em versões posteriores.
+        ((Buffer)frame).flip();
+        return frame;
+    }
+
+    /**
+     * Codifica uma mensagem enviada por um cliente, gerando um frame mascarado com uma chave aleatória,
+     * como exigido pela RFC 6455 para impedir que intermediários (como proxies) interpretem o conteúdo.
+     * @param opcode tipo do frame, como {@link #OP_BINARY}
+     * @param payload buffer contendo o conteúdo da mensagem, que não tem sua posição alterada
+     * @return um novo buffer, pronto para ser lido, contendo o cabeçalho e o conteúdo mascarado da mensagem
+     */
+    static ByteBuffer encodeMasked(final int opcode, final ByteBuffer payload) {
+        final int payloadLength = payload.remaining();
+        final ByteBuffer frame = ByteBuffer.allocate(MAX_HEADER_LENGTH + payloadLength);
+        putHeader(frame, opcode, payloadLength, true);
+        final int mask = ThreadLocalRandom.current().nextInt();
+        frame.putInt(mask);
+        final int payloadStart = frame.position();
+        frame.put(payload.duplicate());
+        applyMask(frame, payloadStart, payloadLength, mask);
+        ((Buffer)frame).flip();
+        return frame;
+    }
+
+    private static void putHeader(final ByteBuffer frame, final int opcode, final int payloadLength, final boolean masked) {
+        final int maskBit = masked ? 0x80 : 0;
+        frame.put((byte) (0x80 | opcode));
+        if(payloadLength <= MAX_CONTROL_PAYLOAD_LENGTH) {
+            frame.put((byte) (maskBit | payloadLength));
+        } else if(payloadLength <= 0xFFFF) {
+            frame.put((byte) (maskBit | 126)).putShort((short) payloadLength);
+        } else frame.put((byte) (maskBit | 127)).putLong(payloadLength);
+    }
+
+    /**
+     * Obtém o conteúdo do próximo frame completo disponível em um buffer, removendo sua máscara (se houver).
+     * Se houver um frame completo, a posição do buffer é avançada para o início do frame seguinte.
+     * Caso contrário, a posição não é alterada, permitindo que o restante do frame seja lido posteriormente.
+     * O tipo do frame obtido pode ser verificado por meio de {@link #getOpcode(ByteBuffer, int)}.
+     *
+     * @param buffer buffer, pronto para ser lido, contendo os bytes recebidos
+     * @return uma fatia (slice) do buffer contendo apenas o conteúdo do frame (sem cópia de dados)
+     *         ou null se o buffer não possui um frame completo
+     * @throws ProtocolException se o frame for inválido, fragmentado ou maior que o permitido
+     */
+    static ByteBuffer nextFrame(final ByteBuffer buffer) throws ProtocolException {
+        if(buffer.remaining() < 2){
+            return null;
+        }
+
+        final int position = buffer.position();
+        final int first = buffer.get(position) & 0xFF;
+        final int second = buffer.get(position + 1) & 0xFF;
+        final boolean masked = (second & 0x80) != 0;
+        long payloadLength = second & 0x7F;
+        int headerLength = 2;
+        if(payloadLength == 126) {
+            if(buffer.remaining() < 4){
+                return null;
+            }
+            payloadLength = buffer.getShort(position + 2) & 0xFFFF;
+            headerLength = 4;
+        } else if(payloadLength == 127) {
+            if(buffer.remaining() < 10){
+                return null;
+            }
+            payloadLength = buffer.getLong(position + 2);
+            headerLength = 10;
+        }
+
+        checkFrame(first, payloadLength);
+        final int maskPosition = position + headerLength;
+        if(masked) {
+            headerLength += Integer.BYTES;
+        }
+
+        if(buffer.remaining() < headerLength + payloadLength){
+            return null;
+        }
+
+        final int payloadStart = position + headerLength;
+        if(masked) {
+            applyMask(buffer, payloadStart, (int) payloadLength, buffer.getInt(maskPosition));
+        }
+
+        final ByteBuffer payload = buffer.duplicate();
+        ((Buffer)payload).position(payloadStart).limit(payloadStart + (int) payloadLength);
+        ((Buffer)buffer).position(payloadStart + (int) payloadLength);
+        return payload.slice();
+    }
+
+    private static void checkFrame(final int first, final long payloadLength) throws ProtocolException {
+        if((first & 0x70) != 0){
+            throw new ProtocolException("Frame WebSocket com bits reservados (extensões não suportadas)");
+        }
+
+        final int opcode = first & 0x0F;
+        if((first & 0x80) == 0 || opcode == OP_CONTINUATION){
+            throw new ProtocolException("Mensagens WebSocket fragmentadas não são suportadas");
+        }
+
+        final long maxLength = isControl(opcode) ? MAX_CONTROL_PAYLOAD_LENGTH : FrameCodec.MAX_PAYLOAD_LENGTH;
+        if(payloadLength < 0 || payloadLength > maxLength){
+            throw new ProtocolException("Tamanho de mensagem inválido: " + payloadLength + " bytes");
+        }
+    }
+
+    private static boolean isControl(final int opcode) {
+        return (opcode & 0x8) != 0;
+    }
+
+    /**
+     * Obtém o tipo de um frame.
+     * @param buffer buffer contendo o frame
+     * @param framePosition posição do início do frame no buffer
+     *                      (a posição do buffer antes de chamar {@link #nextFrame(ByteBuffer)})
+     * @return o opcode do frame, como {@link #OP_BINARY}
+     */
+    static int getOpcode(final ByteBuffer buffer, final int framePosition) {
+        return buffer.get(framePosition) & 0x0F;
+    }
+
+    /**
+     * Aplica (ou remove) a máscara do conteúdo de um frame no próprio buffer,
+     * processando 4 bytes de cada vez.
+     */
+    private static void applyMask(final ByteBuffer buffer, final int start, final int length, final int mask) {
+        int i = 0;
+        for (; i + Integer.BYTES <= length; i += Integer.BYTES) {
+            buffer.putInt(start + i, buffer.getInt(start + i) ^ mask);
+        }
+
+        for (; i < length; i++) {
+            final int maskByte = mask >>> (24 - 8 * (i & 3));
+            buffer.put(start + i, (byte) (buffer.get(start + i) ^ maskByte));
+        }
+    }
+
+    /**
+     * Processa a requisição HTTP de upgrade para WebSocket recebida pelo servidor.
+     * Se a requisição estiver completa, a posição do buffer é avançada para o fim dela.
+     * @param buffer buffer, pronto para ser lido, contendo os bytes recebidos
+     * @return a resposta HTTP a ser enviada ao cliente, ou null se a requisição ainda não foi totalmente recebida
+     * @throws ProtocolException se a requisição for inválida ou maior que o buffer
+     */
+    static ByteBuffer handshake(final ByteBuffer buffer) throws ProtocolException {
+        final String request = nextHeaders(buffer);
+        if(request == null){
+            return null;
+        }
+
+        final String key = getHeader(request, KEY_HEADER);
+        if(!request.startsWith("GET ") || key == null){
+            throw new ProtocolException("Requisição de upgrade para WebSocket inválida");
+        }
+
+        final String response =
+                "HTTP/1.1 101 Switching Protocols\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n";
+        return ByteBuffer.wrap(response.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Gera uma chave aleatória para ser enviada por um cliente na requisição de upgrade.
+     * @return a chave codificada em Base64
+     */
+    static String newHandshakeKey() {
+        final byte[] key = new byte[16];
+        ThreadLocalRandom.current().nextBytes(key);
+        return Base64.getEncoder().encodeToString(key);
+    }
+
+    /**
+     * Gera a requisição HTTP de upgrade para WebSocket enviada por um cliente.
+     * @param host endereço do servidor, incluindo a porta
+     * @param key chave gerada por {@link #newHandshakeKey()}
+     * @return um buffer, pronto para ser lido, contendo a requisição
+     */
+    static ByteBuffer newHandshakeRequest(final String host, final String key) {
+        final String request =
+                "GET / HTTP/1.1\r\n" +
+                "Host: " + host + "\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Key: " + key + "\r\n" +
+                "Sec-WebSocket-Version: 13\r\n\r\n";
+        return ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Verifica a resposta do servidor à requisição de upgrade enviada por um cliente.
+     * Se a resposta estiver completa, a posição do buffer é avançada para o fim dela.
+     * @param buffer buffer, pronto para ser lido, contendo os bytes recebidos
+     * @param key chave enviada na requisição
+     * @return true se a resposta foi totalmente recebida, false se ainda faltam bytes
+     * @throws ProtocolException se o servidor não aceitou o upgrade
+     */
+    static boolean checkHandshakeResponse(final ByteBuffer buffer, final String key) throws ProtocolException {
+        final String response = nextHeaders(buffer);
+        if(response == null){
+            return false;
+        }
+
+        if(!response.startsWith("HTTP/1.1 101") || !acceptKey(key).equals(getHeader(response, ACCEPT_HEADER))){
+            throw new ProtocolException("Upgrade para WebSocket recusado pelo servidor: " + response.split("\r\n", 2)[0]);
+        }
+
+        return true;
+    }
+
+    /**
+     * Obtém os cabeçalhos de uma requisição ou resposta HTTP, terminados por uma linha em branco.
+     * @return os cabeçalhos ou null se ainda não foram totalmente recebidos
+     */
+    private static String nextHeaders(final ByteBuffer buffer) throws ProtocolException {
+        final int position = buffer.position();
+        for (int i = position; i <= buffer.limit() - HEADERS_END.length; i++) {
+            if(isHeadersEnd(buffer, i)) {
+                final byte[] headers = new byte[i - position];
+                buffer.get(headers);
+                ((Buffer)buffer).position(i + HEADERS_END.length);
+                return new String(headers, StandardCharsets.ISO_8859_1);
+            }
+        }
+
+        if(position == 0 && buffer.limit() == buffer.capacity()){
+            throw new ProtocolException("Cabeçalhos HTTP maiores que o buffer de leitura");
+        }
+
+        return null;
+    }
+
+    private static boolean isHeadersEnd(final ByteBuffer buffer, final int index) {
+        for (int i = 0; i < HEADERS_END.length; i++) {
+            if(buffer.get(index + i) != HEADERS_END[i]){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Obtém o valor de um cabeçalho HTTP.
+     * @param headers cabeçalhos recebidos
+     * @param name nome do cabeçalho em letras minúsculas, seguido de ":"
+     * @return o valor do cabeçalho ou null se ele não existir
+     */
+    private static String getHeader(final String headers, final String name) {
+        for (final String line : headers.split("\r\n")) {
+            if(line.toLowerCase(Locale.ROOT).startsWith(name)){
+                return line.substring(name.length()).trim();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Calcula o valor do cabeçalho {@code Sec-WebSocket-Accept} a partir da chave enviada pelo cliente.
+     */
+    private static String acceptKey(final String key) {
+        try {
+            final MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            final byte[] hash = sha1.digest((key + HANDSHAKE_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Algoritmo SHA-1 não disponível", e);
+        }
+    }
+}